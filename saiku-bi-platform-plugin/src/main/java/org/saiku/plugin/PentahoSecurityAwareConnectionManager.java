@@ -19,13 +19,15 @@
  */
 package org.saiku.plugin;
 
-import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
 
 import mondrian.olap4j.SaikuMondrianHelper;
 
+import org.apache.commons.lang.StringUtils;
 import org.olap4j.OlapConnection;
 import org.pentaho.platform.api.engine.IConnectionUserRoleMapper;
 import org.pentaho.platform.engine.core.system.PentahoSessionHolder;
@@ -35,20 +37,29 @@ import org.saiku.datasources.connection.AbstractConnectionManager;
 import org.saiku.datasources.connection.ISaikuConnection;
 import org.saiku.datasources.connection.SaikuConnectionFactory;
 import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.util.SaikuProperties;
 
 public class PentahoSecurityAwareConnectionManager extends AbstractConnectionManager {
 
 	public static final String MDX_CONNECTION_MAPPER_KEY = "Mondrian-UserRoleMapper"; //$NON-NLS-1$
 
-	private Map<String, ISaikuConnection> connections = new HashMap<String, ISaikuConnection>();
+	private Map<String, ISaikuConnection> connections = new ConcurrentHashMap<String, ISaikuConnection>();
 
-	private List<String> errorConnections = new ArrayList<String>();
+	private CopyOnWriteArrayList<String> errorConnections = new CopyOnWriteArrayList<String>();
+
+	private ConcurrentMap<String, ReentrantLock> connectionLocks = new ConcurrentHashMap<String, ReentrantLock>();
 
 	private Boolean userAware;
 
+	/**
+	 * Connects all datasources, unless a metadata snapshot is configured. Then the discover service
+	 * serves the snapshot and opens the connections in the background.
+	 */
 	@Override
 	public void init() {
-		this.connections = getAllConnections();
+		if (StringUtils.isBlank(SaikuProperties.olapMetadataSnapshot)) {
+			this.connections = new ConcurrentHashMap<String, ISaikuConnection>(getAllConnections());
+		}
 	}
 	
 	public void setUserAware(Boolean aware) {
@@ -58,22 +69,10 @@ public class PentahoSecurityAwareConnectionManager extends AbstractConnectionMan
 	@Override
 	protected ISaikuConnection getInternalConnection(String name, SaikuDatasource datasource) {
 		ISaikuConnection con;
-		if (userAware && PentahoSessionHolder.getSession().getName() != null) {
+		if (userAware && PentahoSessionHolder.getSession() != null && PentahoSessionHolder.getSession().getName() != null) {
 			name = name + "-" + PentahoSessionHolder.getSession().getName();
 		}
-		if (!connections.containsKey(name)) {
-			con =  connect(name, datasource);
-			if (con != null) {
-				connections.put(name, con);
-			} else {
-				if (!errorConnections.contains(name)) {
-					errorConnections.add(name);
-				}
-			}
-
-		} else {
-			con = connections.get(name);
-		}
+		con = getOrConnect(name, datasource);
 
 		try {
 			con = applySecurity(con, datasource);
@@ -88,7 +87,7 @@ public class PentahoSecurityAwareConnectionManager extends AbstractConnectionMan
 	protected void refreshInternalConnection(String name, SaikuDatasource datasource) {
 		try {
 			String newname = name;
-			if (userAware && PentahoSessionHolder.getSession().getName() != null) {
+			if (userAware && PentahoSessionHolder.getSession() != null && PentahoSessionHolder.getSession().getName() != null) {
 				newname = name + "-" + PentahoSessionHolder.getSession().getName();
 			}
 			ISaikuConnection con = connections.remove(newname);
@@ -104,6 +103,16 @@ public class PentahoSecurityAwareConnectionManager extends AbstractConnectionMan
 
 	}
 
+	/**
+	 * Datasources are secured if they say so or if Pentaho maps the users to Mondrian roles, which
+	 * then applies to all of them.
+	 */
+	@Override
+	public boolean isDatasourceSecurityEnabled(SaikuDatasource datasource) {
+		return super.isDatasourceSecurityEnabled(datasource)
+			|| PentahoSystem.getObjectFactory().objectDefined(MDXConnection.MDX_CONNECTION_MAPPER_KEY);
+	}
+
 	private ISaikuConnection applySecurity(ISaikuConnection con, SaikuDatasource datasource) throws Exception {
 		if (con == null) {
 			throw new IllegalArgumentException("Cannot apply Security to NULL connection object");
@@ -139,6 +148,38 @@ public class PentahoSecurityAwareConnectionManager extends AbstractConnectionMan
 		return false;
 	}
 
+	/**
+	 * Returns the connection with the name or opens it. Only one thread opens a connection
+	 * for a name, the others wait for it and use the same one.
+	 */
+	private ISaikuConnection getOrConnect(String name, SaikuDatasource datasource) {
+		ISaikuConnection con = connections.get(name);
+		if (con != null) {
+			return con;
+		}
+		ReentrantLock lock = new ReentrantLock();
+		ReentrantLock existing = connectionLocks.putIfAbsent(name, lock);
+		if (existing != null) {
+			lock = existing;
+		}
+		lock.lock();
+		try {
+			con = connections.get(name);
+			if (con == null) {
+				con = connect(name, datasource);
+				if (con != null) {
+					connections.put(name, con);
+					errorConnections.remove(name);
+				} else {
+					errorConnections.addIfAbsent(name);
+				}
+			}
+			return con;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	private ISaikuConnection connect(String name, SaikuDatasource datasource) {
 		try {
 			ISaikuConnection con = SaikuConnectionFactory.getConnection(datasource);
@@ -26,6 +26,8 @@ import java.util.Properties;
 
 import org.olap4j.OlapConnection;
 import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.discover.MemberSearchIndexes;
+import org.saiku.olap.discover.OlapMetadataCache;
 import org.saiku.service.datasource.IDatasourceManager;
 import org.saiku.service.datasource.IDatasourceProcessor;
 import org.saiku.service.util.exception.SaikuServiceException;
@@ -80,6 +82,7 @@ public abstract class AbstractConnectionManager implements IConnectionManager {
 
 	public void refreshAllConnections() {
 		ds.load();
+		OlapMetadataCache.getInstance().invalidateAll();
 		for (String name : ds.getDatasources().keySet()) {
 			refreshConnection(name);
 		}
@@ -88,6 +91,8 @@ public abstract class AbstractConnectionManager implements IConnectionManager {
 	public void refreshConnection(String name) {
 		SaikuDatasource datasource = ds.getDatasource(name);
 		datasource = preProcess(datasource);
+		OlapMetadataCache.getInstance().invalidate(name);
+		MemberSearchIndexes.getInstance().invalidate(name);
 		refreshInternalConnection(name, datasource);
 	}
 
@@ -40,11 +40,12 @@ public interface ISaikuConnection {
     public static final String SECURITY_TYPE_PASSTHROUGH_VALUE = "passthrough"; //$NON-NLS-1$
     public static final String SECURITY_LOOKUP_KEY = "security.mapping"; //$NON-NLS-1$
     public static final String DATASOURCE_PROCESSORS = "datasource.processors"; //$NON-NLS-1$
+    public static final String RESULT_MAXCELLS_KEY = "result.maxcells"; //$NON-NLS-1$
     
 
     public static final String[] KEYS = new String[] { NAME_KEY, DRIVER_KEY, URL_KEY,
 	      USERNAME_KEY, PASSWORD_KEY, SECURITY_ENABLED_KEY, SECURITY_TYPE_KEY, SECURITY_TYPE_PASSTHROUGH_VALUE,
-	      SECURITY_TYPE_SPRING2MONDRIAN_VALUE, SECURITY_TYPE_SPRINGLOOKUPMONDRIAN_VALUE, DATASOURCE_PROCESSORS};
+	      SECURITY_TYPE_SPRING2MONDRIAN_VALUE, SECURITY_TYPE_SPRINGLOOKUPMONDRIAN_VALUE, DATASOURCE_PROCESSORS, RESULT_MAXCELLS_KEY};
 
     public static final String[] DATASOURCES = new String[] { OLAP_DATASOURCE };
 
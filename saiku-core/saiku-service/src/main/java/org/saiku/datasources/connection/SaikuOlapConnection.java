@@ -26,7 +26,11 @@ import mondrian.olap4j.SaikuMondrianHelper;
 import mondrian.rolap.RolapConnection;
 
 import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
 import org.olap4j.OlapWrapper;
+import org.saiku.olap.discover.MemberSearchIndexes;
+import org.saiku.olap.discover.OlapCubeIndex;
+import org.saiku.olap.discover.OlapMetadataCache;
 
 public class SaikuOlapConnection implements ISaikuConnection {
 
@@ -34,6 +38,7 @@ public class SaikuOlapConnection implements ISaikuConnection {
 	private boolean initialized = false;
 	private Properties properties;
 	private OlapConnection olapConnection;
+	private volatile OlapCubeIndex cubeIndex;
 	private String username;
 	private String password;
 
@@ -85,7 +90,10 @@ public class SaikuOlapConnection implements ISaikuConnection {
 
 		System.out.println("Catalogs:" + tmpolapConnection.getOlapCatalogs().size());
 		olapConnection = tmpolapConnection;
+		cubeIndex = new OlapCubeIndex(olapConnection);
 		initialized = true;
+		boolean security = Boolean.parseBoolean(props.getProperty(ISaikuConnection.SECURITY_ENABLED_KEY, "false"));
+		MemberSearchIndexes.getInstance().schedule(name, olapConnection, security);
 		return true;
 	}
 	
@@ -94,6 +102,9 @@ public class SaikuOlapConnection implements ISaikuConnection {
 			RolapConnection rcon = SaikuMondrianHelper.getMondrianConnection(olapConnection);
 			rcon.getCacheControl(null).flushSchemaCache();
 		}
+		OlapMetadataCache.getInstance().invalidate(name);
+		MemberSearchIndexes.getInstance().invalidate(name);
+		cubeIndex = null;
 		return true;
 	}
 
@@ -111,6 +122,18 @@ public class SaikuOlapConnection implements ISaikuConnection {
 		return olapConnection;
 	}
 
+	/**
+	 * Returns the cube index of this connection, it is built on connect and rebuilt on first use after the cache was cleared.
+	 */
+	public OlapCubeIndex getCubeIndex() throws OlapException {
+		OlapCubeIndex index = cubeIndex;
+		if (index == null && olapConnection != null) {
+			index = new OlapCubeIndex(olapConnection);
+			cubeIndex = index;
+		}
+		return index;
+	}
+
 	public void setProperties(Properties props) {
 		properties = props;
 	}
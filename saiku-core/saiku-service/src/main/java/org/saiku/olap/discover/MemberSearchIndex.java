@@ -0,0 +1,257 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.discover;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.olap4j.OlapException;
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
+import org.saiku.olap.dto.SaikuMember;
+
+/**
+ * Immutable search index over the members of one hierarchy.
+ * Members are numbered in hierarchy order and their strings are kept in a string pool, so equal names,
+ * captions and descriptions share one instance. Captions are indexed by trigrams of their lower case
+ * characters, each trigram pointing to a sorted int array of member numbers.
+ */
+public class MemberSearchIndex {
+
+	private static final int[] EMPTY = new int[0];
+
+	private final String roleName;
+	private final String dimensionUniqueName;
+	private final String hierarchyUniqueName;
+	private final String[] levelUniqueNames;
+
+	private final byte[] memberLevels;
+	private final String[] names;
+	private final String[] uniqueNames;
+	private final String[] captions;
+	private final String[] descriptions;
+
+	private final Map<Long, int[]> postings;
+
+	private MemberSearchIndex(String roleName, Hierarchy hierarchy, List<Member> members) {
+		this.roleName = roleName;
+		this.dimensionUniqueName = hierarchy.getDimension().getUniqueName();
+		this.hierarchyUniqueName = hierarchy.getUniqueName();
+		List<Level> levels = hierarchy.getLevels();
+		this.levelUniqueNames = new String[levels.size()];
+		for (int i = 0; i < levels.size(); i++) {
+			levelUniqueNames[i] = levels.get(i).getUniqueName();
+		}
+
+		int size = members.size();
+		memberLevels = new byte[size];
+		names = new String[size];
+		uniqueNames = new String[size];
+		captions = new String[size];
+		descriptions = new String[size];
+
+		Map<String, String> pool = new HashMap<String, String>();
+		Map<Long, IntList> trigrams = new HashMap<Long, IntList>();
+		for (int id = 0; id < size; id++) {
+			Member m = members.get(id);
+			memberLevels[id] = (byte) m.getLevel().getDepth();
+			names[id] = pool(pool, m.getName());
+			uniqueNames[id] = m.getUniqueName();
+			captions[id] = pool(pool, m.getCaption() != null ? m.getCaption() : m.getName());
+			descriptions[id] = pool(pool, m.getDescription());
+			String caption = captions[id];
+			for (int i = 0; i + 3 <= caption.length(); i++) {
+				Long key = trigram(caption, i);
+				IntList list = trigrams.get(key);
+				if (list == null) {
+					list = new IntList();
+					trigrams.put(key, list);
+				}
+				list.addUnique(id);
+			}
+		}
+
+		postings = new HashMap<Long, int[]>(trigrams.size());
+		for (Map.Entry<Long, IntList> entry : trigrams.entrySet()) {
+			postings.put(entry.getKey(), entry.getValue().toArray());
+		}
+	}
+
+	/**
+	 * Builds the index for all members of all levels of the hierarchy, using the given role for member access.
+	 */
+	public static MemberSearchIndex build(String roleName, Hierarchy hierarchy) throws OlapException {
+		List<Member> members = new ArrayList<Member>();
+		for (Level level : hierarchy.getLevels()) {
+			members.addAll(level.getMembers());
+		}
+		return new MemberSearchIndex(roleName, hierarchy, members);
+	}
+
+	public String getRoleName() {
+		return roleName;
+	}
+
+	public int size() {
+		return uniqueNames.length;
+	}
+
+	public boolean hasLevel(String levelUniqueName) {
+		return levelIndex(levelUniqueName) >= 0;
+	}
+
+	/**
+	 * Returns a page of the members of the level whose caption starts with (prefix) or contains the search, ignoring case.
+	 * A blank search returns all members of the level, a limit of 0 all members from the offset on.
+	 */
+	public List<SaikuMember> search(String levelUniqueName, String search, boolean prefix, int offset, int limit) {
+		int[] ids = match(levelIndex(levelUniqueName), search, prefix);
+		int from = Math.min(Math.max(offset, 0), ids.length);
+		int to = limit > 0 ? Math.min(from + limit, ids.length) : ids.length;
+		List<SaikuMember> members = new ArrayList<SaikuMember>(to - from);
+		for (int i = from; i < to; i++) {
+			int id = ids[i];
+			members.add(new SaikuMember(names[id], uniqueNames[id], captions[id], descriptions[id],
+					dimensionUniqueName, hierarchyUniqueName, levelUniqueNames[memberLevels[id]]));
+		}
+		return members;
+	}
+
+	public int count(String levelUniqueName, String search, boolean prefix) {
+		return match(levelIndex(levelUniqueName), search, prefix).length;
+	}
+
+	private int[] match(int level, String search, boolean prefix) {
+		if (level < 0) {
+			return EMPTY;
+		}
+		String s = search != null ? search.trim() : "";
+		int[] candidates = null;
+		if (s.length() >= 3) {
+			for (int i = 0; i + 3 <= s.length(); i++) {
+				int[] ids = postings.get(trigram(s, i));
+				if (ids == null) {
+					return EMPTY;
+				}
+				candidates = candidates == null ? ids : intersect(candidates, ids);
+				if (candidates.length == 0) {
+					return EMPTY;
+				}
+			}
+		}
+		IntList result = new IntList();
+		int size = candidates != null ? candidates.length : uniqueNames.length;
+		for (int i = 0; i < size; i++) {
+			int id = candidates != null ? candidates[i] : i;
+			if (memberLevels[id] == level && matches(captions[id], s, prefix)) {
+				result.add(id);
+			}
+		}
+		return result.toArray();
+	}
+
+	private int levelIndex(String levelUniqueName) {
+		for (int i = 0; i < levelUniqueNames.length; i++) {
+			if (levelUniqueNames[i].equals(levelUniqueName)) {
+				return i;
+			}
+		}
+		return -1;
+	}
+
+	private static boolean matches(String caption, String search, boolean prefix) {
+		int length = search.length();
+		if (prefix) {
+			return caption.regionMatches(true, 0, search, 0, length);
+		}
+		for (int i = 0; i + length <= caption.length(); i++) {
+			if (caption.regionMatches(true, i, search, 0, length)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Long trigram(String s, int start) {
+		long c0 = Character.toLowerCase(s.charAt(start));
+		long c1 = Character.toLowerCase(s.charAt(start + 1));
+		long c2 = Character.toLowerCase(s.charAt(start + 2));
+		return Long.valueOf((c0 << 32) | (c1 << 16) | c2);
+	}
+
+	private static int[] intersect(int[] a, int[] b) {
+		int[] result = new int[Math.min(a.length, b.length)];
+		int i = 0, j = 0, k = 0;
+		while (i < a.length && j < b.length) {
+			if (a[i] < b[j]) {
+				i++;
+			} else if (a[i] > b[j]) {
+				j++;
+			} else {
+				result[k++] = a[i];
+				i++;
+				j++;
+			}
+		}
+		return k == result.length ? result : Arrays.copyOf(result, k);
+	}
+
+	private static String pool(Map<String, String> pool, String value) {
+		if (value == null) {
+			return null;
+		}
+		String pooled = pool.get(value);
+		if (pooled == null) {
+			pool.put(value, value);
+			pooled = value;
+		}
+		return pooled;
+	}
+
+	private static class IntList {
+		private int[] values = new int[4];
+		private int size = 0;
+
+		void add(int value) {
+			if (size == values.length) {
+				values = Arrays.copyOf(values, size * 2);
+			}
+			values[size++] = value;
+		}
+
+		/**
+		 * Adds the value unless it is the last one, values are added in ascending order.
+		 */
+		void addUnique(int value) {
+			if (size == 0 || values[size - 1] != value) {
+				add(value);
+			}
+		}
+
+		int[] toArray() {
+			return Arrays.copyOf(values, size);
+		}
+	}
+
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.discover;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.apache.commons.lang.StringUtils;
+import org.olap4j.OlapConnection;
+import org.olap4j.metadata.Catalog;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Database;
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Schema;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.olap.QueryExecutorPool;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the member search indexes of the hierarchies configured in saiku.olap.member.index.hierarchies,
+ * a comma separated list of connection/cube/hierarchy entries. The indexes of a connection are built
+ * in the background once it is opened and dropped when it is refreshed or its cache is cleared.
+ * Indexes are only built for datasources without security: the members are read with the role the connection
+ * was opened with, while secured connections switch their role with every user request.
+ */
+public class MemberSearchIndexes {
+
+	private static final Logger log = LoggerFactory.getLogger(MemberSearchIndexes.class);
+
+	private static final MemberSearchIndexes instance = new MemberSearchIndexes();
+
+	private final List<String[]> configured = new ArrayList<String[]>();
+
+	private final ConcurrentMap<String, OlapConnection> sources = new ConcurrentHashMap<String, OlapConnection>();
+
+	private final ConcurrentMap<String, MemberSearchIndex> indexes = new ConcurrentHashMap<String, MemberSearchIndex>();
+
+	MemberSearchIndexes() {
+		for (String entry : StringUtils.split(SaikuProperties.olapMemberIndexHierarchies, ',')) {
+			String[] parts = entry.trim().split("/", 3);
+			if (parts.length == 3) {
+				configured.add(parts);
+			} else if (StringUtils.isNotBlank(entry)) {
+				log.warn("Ignoring member index entry (" + entry + "), expected connection/cube/hierarchy");
+			}
+		}
+	}
+
+	public static MemberSearchIndexes getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Builds the configured indexes of the connection in the background, unless they are already built or being built.
+	 * @param security whether the datasource uses security, no indexes are built then.
+	 */
+	public void schedule(final String connectionName, final OlapConnection con, boolean security) {
+		if (connectionName == null || !isConfigured(connectionName)) {
+			return;
+		}
+		if (security) {
+			log.warn("Not building member indexes for connection " + connectionName + ", its datasource uses security");
+			return;
+		}
+		if (sources.putIfAbsent(connectionName, con) != null) {
+			return;
+		}
+		QueryExecutorPool.getIndexExecutor().execute(new Runnable() {
+			public void run() {
+				build(connectionName, con);
+			}
+		});
+	}
+
+	public void invalidate(String connectionName) {
+		if (connectionName == null) {
+			return;
+		}
+		sources.remove(connectionName);
+		String prefix = connectionName + "|";
+		for (String key : indexes.keySet()) {
+			if (key.startsWith(prefix)) {
+				indexes.remove(key);
+			}
+		}
+	}
+
+	/**
+	 * Returns the index of the hierarchy if it is built and was built for the same role.
+	 */
+	public MemberSearchIndex get(String connectionName, String catalogName, String schemaName, String cubeName,
+			String hierarchyUniqueName, String roleName) {
+		if (indexes.isEmpty()) {
+			return null;
+		}
+		MemberSearchIndex index = indexes.get(key(connectionName, catalogName, schemaName, cubeName, hierarchyUniqueName));
+		if (index != null && StringUtils.equals(index.getRoleName(), roleName)) {
+			return index;
+		}
+		return null;
+	}
+
+	/**
+	 * Adds an index that was built elsewhere, e.g. by tests.
+	 */
+	void put(String connectionName, String catalogName, String schemaName, String cubeName, String hierarchyUniqueName,
+			MemberSearchIndex index) {
+		indexes.put(key(connectionName, catalogName, schemaName, cubeName, hierarchyUniqueName), index);
+	}
+
+	private void build(String connectionName, OlapConnection con) {
+		try {
+			// only datasources without security are indexed, their role is not looked up
+			String roleName = null;
+			for (Database db : con.getOlapDatabases()) {
+				for (Catalog cat : db.getCatalogs()) {
+					for (Schema schema : cat.getSchemas()) {
+						for (Cube cube : schema.getCubes()) {
+							for (String[] entry : configured) {
+								if (!entry[0].equals(connectionName)
+										|| !(entry[1].equals(cube.getName()) || entry[1].equals(cube.getUniqueName()))) {
+									continue;
+								}
+								Hierarchy h = findHierarchy(cube, entry[2]);
+								if (h == null) {
+									log.warn("Cannot find hierarchy " + entry[2] + " in cube " + cube.getName() + " for the member index");
+									continue;
+								}
+								long start = System.currentTimeMillis();
+								MemberSearchIndex index = MemberSearchIndex.build(roleName, h);
+								String key = key(connectionName, cat.getName(), schema.getName(), cube.getName(), h.getUniqueName());
+								indexes.put(key, index);
+								if (sources.get(connectionName) != con) {
+									// the connection was refreshed meanwhile, checked after the put so that an invalidation
+									// between the check and the put can't leave the index behind
+									indexes.remove(key, index);
+									return;
+								}
+								log.info("Built member index for " + h.getUniqueName() + " in cube " + cube.getName()
+										+ " (" + index.size() + " members) in " + (System.currentTimeMillis() - start) + "ms");
+							}
+						}
+					}
+				}
+			}
+		} catch (Exception e) {
+			log.error("Cannot build member indexes for connection " + connectionName, e);
+		}
+	}
+
+	private boolean isConfigured(String connectionName) {
+		for (String[] entry : configured) {
+			if (entry[0].equals(connectionName)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	private static Hierarchy findHierarchy(Cube cube, String hierarchyName) {
+		Hierarchy h = cube.getHierarchies().get(hierarchyName);
+		if (h == null) {
+			for (Hierarchy hlist : cube.getHierarchies()) {
+				if (hlist.getUniqueName().equals(hierarchyName) || hlist.getName().equals(hierarchyName)) {
+					h = hlist;
+				}
+			}
+		}
+		return h;
+	}
+
+	private static String key(String connectionName, String catalogName, String schemaName, String cubeName, String hierarchyUniqueName) {
+		return connectionName + "|" + catalogName + "|" + schemaName + "|" + cubeName + "|" + hierarchyUniqueName;
+	}
+
+}
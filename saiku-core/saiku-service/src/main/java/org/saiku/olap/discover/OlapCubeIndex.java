@@ -0,0 +1,100 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.discover;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapException;
+import org.olap4j.metadata.Catalog;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Database;
+import org.olap4j.metadata.Schema;
+
+/**
+ * Index of the cubes of one connection by catalog, schema and cube name or unique name.
+ * The visible cubes depend on the role of the connection, so there is one index per role,
+ * the one of the current role is built when the index is created and the others on first use.
+ * Refreshing a connection replaces the whole index instead of updating it.
+ */
+public class OlapCubeIndex {
+
+	private static final String NO_ROLE = "";
+
+	private final OlapConnection connection;
+
+	private final ConcurrentMap<String, Map<String, Cube>> roleIndexes = new ConcurrentHashMap<String, Map<String, Cube>>();
+
+	public OlapCubeIndex(OlapConnection connection) throws OlapException {
+		this.connection = connection;
+		getCubes();
+	}
+
+	public Cube lookup(String catalogName, String schemaName, String cubeName, String cubeUniqueName) throws OlapException {
+		Map<String, Cube> cubes = getCubes();
+		Cube cube = cubes.get(key(catalogName, schemaName, cubeName));
+		if (cube == null && cubeUniqueName != null) {
+			cube = cubes.get(key(catalogName, schemaName, cubeUniqueName));
+		}
+		return cube;
+	}
+
+	private Map<String, Cube> getCubes() throws OlapException {
+		String role = connection.getRoleName();
+		if (role == null) {
+			role = NO_ROLE;
+		}
+		Map<String, Cube> cubes = roleIndexes.get(role);
+		if (cubes == null) {
+			cubes = build();
+			roleIndexes.put(role, cubes);
+		}
+		return cubes;
+	}
+
+	private Map<String, Cube> build() throws OlapException {
+		Map<String, Cube> cubes = new HashMap<String, Cube>();
+		for (Database db : connection.getOlapDatabases()) {
+			for (Catalog cat : db.getCatalogs()) {
+				for (Schema schema : cat.getSchemas()) {
+					for (Cube cub : schema.getCubes()) {
+						String nameKey = key(cat.getName(), schema.getName(), cub.getName());
+						if (!cubes.containsKey(nameKey)) {
+							cubes.put(nameKey, cub);
+						}
+						String uniqueNameKey = key(cat.getName(), schema.getName(), cub.getUniqueName());
+						if (!cubes.containsKey(uniqueNameKey)) {
+							cubes.put(uniqueNameKey, cub);
+						}
+					}
+				}
+			}
+		}
+		return cubes;
+	}
+
+	private static String key(String catalogName, String schemaName, String cubeName) {
+		return catalogName + "|" + schemaName + "|" + cubeName;
+	}
+
+}
@@ -23,11 +23,28 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
+import mondrian.olap4j.SaikuMondrianHelper;
+
+import org.apache.commons.lang.StringUtils;
+import org.olap4j.CellSet;
 import org.olap4j.OlapConnection;
 import org.olap4j.OlapDatabaseMetaData;
 import org.olap4j.OlapException;
+import org.olap4j.OlapStatement;
+import org.olap4j.Position;
 import org.olap4j.mdx.IdentifierNode;
 import org.olap4j.mdx.IdentifierSegment;
 import org.olap4j.metadata.Catalog;
@@ -39,7 +56,11 @@ import org.olap4j.metadata.Level;
 import org.olap4j.metadata.Measure;
 import org.olap4j.metadata.Member;
 import org.olap4j.metadata.Schema;
+import org.saiku.datasources.connection.AbstractConnectionManager;
 import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.connection.ISaikuConnection;
+import org.saiku.datasources.connection.SaikuOlapConnection;
+import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.olap.dto.SaikuCatalog;
 import org.saiku.olap.dto.SaikuConnection;
 import org.saiku.olap.dto.SaikuCube;
@@ -50,19 +71,39 @@ import org.saiku.olap.dto.SaikuMember;
 import org.saiku.olap.dto.SaikuSchema;
 import org.saiku.olap.util.ObjectUtil;
 import org.saiku.olap.util.SaikuMemberCaptionComparator;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.util.exception.MemberListLimitException;
 import org.saiku.olap.util.exception.SaikuOlapException;
+import org.saiku.service.datasource.IDatasourceManager;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class OlapMetaExplorer {
 
 
+	private static final Logger log = LoggerFactory.getLogger(OlapMetaExplorer.class);
+
 	private IConnectionManager connections;
 
+	private OlapMetadataCache cache = OlapMetadataCache.getInstance();
+
+	private ExecutorService executor;
+
+	private int memberListLimit = SaikuProperties.olapMemberListLimit;
+
+	private final ConcurrentMap<OlapConnection, DiscoverTask<SaikuConnection>> connectionTasks = new ConcurrentHashMap<OlapConnection, DiscoverTask<SaikuConnection>>();
+
+	private final ConcurrentMap<OlapConnection, DiscoverTask<List<SaikuCube>>> cubeTasks = new ConcurrentHashMap<OlapConnection, DiscoverTask<List<SaikuCube>>>();
+
 	public OlapMetaExplorer(IConnectionManager ic) {
 		connections = ic;
 	}
 
 	public SaikuConnection getConnection(String connectionName) throws SaikuOlapException {
-		OlapConnection olapcon = connections.getOlapConnection(connectionName);
+		return getConnection(connectionName, connections.getOlapConnection(connectionName));
+	}
+
+	private SaikuConnection getConnection(String connectionName, OlapConnection olapcon) throws SaikuOlapException {
 		SaikuConnection connection = null;
 		if (olapcon != null) {
 			List<SaikuCatalog> catalogs = new ArrayList<SaikuCatalog>();
@@ -124,10 +165,42 @@ public class OlapMetaExplorer {
 		return connectionList;
 	}
 
+	/**
+	 * Returns all connections. With an executor set they are discovered in parallel. A connection that fails
+	 * or takes longer than saiku.olap.discover.timeout is returned without catalogs and with an error.
+	 * A discovery that is still running is joined instead of started again, see {@link #submit}.
+	 */
 	public List<SaikuConnection> getAllConnections() throws SaikuOlapException {
 		List<SaikuConnection> cubesList = new ArrayList<SaikuConnection>();
-		for (String connectionName : connections.getAllOlapConnections().keySet()) {
-			cubesList.add(getConnection(connectionName));
+		Map<String, OlapConnection> olapConnections = connections.getAllOlapConnections();
+		if (executor == null) {
+			for (Map.Entry<String, OlapConnection> entry : olapConnections.entrySet()) {
+				try {
+					cubesList.add(getConnection(entry.getKey(), entry.getValue()));
+				} catch (SaikuOlapException e) {
+					log.error("Cannot discover connection " + entry.getKey(), e);
+					cubesList.add(new SaikuConnection(entry.getKey(), e.getMessage()));
+				}
+			}
+		} else {
+			Map<String, DiscoverTask<SaikuConnection>> tasks = new LinkedHashMap<String, DiscoverTask<SaikuConnection>>();
+			for (Map.Entry<String, OlapConnection> entry : olapConnections.entrySet()) {
+				final String connectionName = entry.getKey();
+				final OlapConnection olapcon = entry.getValue();
+				tasks.put(connectionName, submit(connectionTasks, olapcon, new Callable<SaikuConnection>() {
+					public SaikuConnection call() throws Exception {
+						return getConnection(connectionName, olapcon);
+					}
+				}));
+			}
+			for (Map.Entry<String, DiscoverTask<SaikuConnection>> entry : tasks.entrySet()) {
+				try {
+					cubesList.add(await(entry.getValue()));
+				} catch (Exception e) {
+					log.error("Cannot discover connection " + entry.getKey(), e);
+					cubesList.add(new SaikuConnection(entry.getKey(), discoverError(e)));
+				}
+			}
 		}
 		Collections.sort(cubesList);
 		return cubesList;
@@ -135,7 +208,10 @@ public class OlapMetaExplorer {
 
 
 	public List<SaikuCube> getCubes(String connectionName) {
-		OlapConnection olapcon = connections.getOlapConnection(connectionName);
+		return getCubes(connectionName, connections.getOlapConnection(connectionName));
+	}
+
+	private List<SaikuCube> getCubes(String connectionName, OlapConnection olapcon) {
 		List<SaikuCube> cubes = new ArrayList<SaikuCube>();
 		if (olapcon != null) {
 			try {
@@ -165,19 +241,140 @@ public class OlapMetaExplorer {
 		return cubesList;
 	}
 
+	/**
+	 * Returns the cubes of all connections, in parallel if an executor is set.
+	 * The cubes of connections that fail or time out are left out.
+	 */
 	public List<SaikuCube> getAllCubes() {
 		List<SaikuCube> cubes = new ArrayList<SaikuCube>();
-		for (String connectionName : connections.getAllOlapConnections().keySet()) {
-			cubes.addAll(getCubes(connectionName));
+		Map<String, OlapConnection> olapConnections = connections.getAllOlapConnections();
+		if (executor == null) {
+			for (Map.Entry<String, OlapConnection> entry : olapConnections.entrySet()) {
+				cubes.addAll(getCubes(entry.getKey(), entry.getValue()));
+			}
+		} else {
+			Map<String, DiscoverTask<List<SaikuCube>>> tasks = new LinkedHashMap<String, DiscoverTask<List<SaikuCube>>>();
+			for (Map.Entry<String, OlapConnection> entry : olapConnections.entrySet()) {
+				final String connectionName = entry.getKey();
+				final OlapConnection olapcon = entry.getValue();
+				tasks.put(connectionName, submit(cubeTasks, olapcon, new Callable<List<SaikuCube>>() {
+					public List<SaikuCube> call() throws Exception {
+						return getCubes(connectionName, olapcon);
+					}
+				}));
+			}
+			for (Map.Entry<String, DiscoverTask<List<SaikuCube>>> entry : tasks.entrySet()) {
+				try {
+					cubes.addAll(await(entry.getValue()));
+				} catch (Exception e) {
+					log.error("Cannot get cubes of connection " + entry.getKey(), e);
+				}
+			}
 		}
 		Collections.sort(cubes);
 		return cubes;
 	}
 
+	public void setExecutor(ExecutorService executor) {
+		this.executor = executor;
+	}
+
+	/**
+	 * Sets the number of members a level may have to be listed without a search or a limit, 0 allows all.
+	 * Defaults to saiku.olap.member.list.limit.
+	 */
+	public void setMemberListLimit(int memberListLimit) {
+		this.memberListLimit = memberListLimit;
+	}
+
+	/**
+	 * Starts the discovery on the connection, or returns the one that is still running on it. A connection that
+	 * hangs, e.g. in XMLA socket I/O, therefore keeps at most one thread busy however often it is requested.
+	 */
+	private <T> DiscoverTask<T> submit(ConcurrentMap<OlapConnection, DiscoverTask<T>> tasks, OlapConnection olapcon,
+			Callable<T> callable) {
+		DiscoverTask<T> task = new DiscoverTask<T>(tasks, olapcon, callable);
+		DiscoverTask<T> running = tasks.putIfAbsent(olapcon, task);
+		if (running != null) {
+			return running;
+		}
+		executor.execute(task);
+		return task;
+	}
+
+	/**
+	 * Waits until saiku.olap.discover.timeout after the task started. A task that times out is not cancelled,
+	 * other requests may be waiting for it and cancelling does not interrupt blocking I/O anyway.
+	 */
+	private static <T> T await(DiscoverTask<T> task) throws Exception {
+		long timeout = SaikuProperties.olapDiscoverTimeout * 1000L;
+		while (true) {
+			long started = task.getStarted();
+			long wait = started > 0 ? started + timeout - System.currentTimeMillis() : timeout;
+			try {
+				return task.get(Math.max(0, wait), TimeUnit.MILLISECONDS);
+			} catch (TimeoutException e) {
+				started = task.getStarted();
+				if (started > 0 && started + timeout <= System.currentTimeMillis()) {
+					throw e;
+				}
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw e;
+			}
+		}
+	}
+
+	/**
+	 * Discovery of one connection, it records when it starts and unregisters itself once done.
+	 */
+	private static class DiscoverTask<T> extends FutureTask<T> {
+
+		private final ConcurrentMap<OlapConnection, DiscoverTask<T>> tasks;
+		private final OlapConnection olapcon;
+		private volatile long started = 0;
+
+		DiscoverTask(ConcurrentMap<OlapConnection, DiscoverTask<T>> tasks, OlapConnection olapcon, Callable<T> callable) {
+			super(callable);
+			this.tasks = tasks;
+			this.olapcon = olapcon;
+		}
+
+		@Override
+		public void run() {
+			started = System.currentTimeMillis();
+			super.run();
+		}
+
+		@Override
+		protected void done() {
+			tasks.remove(olapcon, this);
+		}
+
+		long getStarted() {
+			return started;
+		}
+	}
+
+	private static String discoverError(Exception e) {
+		if (e instanceof TimeoutException) {
+			return "Timeout after " + SaikuProperties.olapDiscoverTimeout + "s";
+		}
+		Throwable cause = e instanceof ExecutionException && e.getCause() != null ? e.getCause() : e;
+		return cause.getMessage() != null ? cause.getMessage() : cause.getClass().getName();
+	}
+
 	public Cube getNativeCube(SaikuCube cube) throws SaikuOlapException {
 		try {
-			OlapConnection con = connections.getOlapConnection(cube.getConnectionName());
-			if (con != null ) {
+			ISaikuConnection saikuCon = connections.getConnection(cube.getConnectionName());
+			OlapCubeIndex index = saikuCon instanceof SaikuOlapConnection ? ((SaikuOlapConnection) saikuCon).getCubeIndex() : null;
+			if (index != null) {
+				Cube cub = index.lookup(cube.getCatalogName(), cube.getSchemaName(), cube.getName(), cube.getUniqueName());
+				if (cub != null) {
+					return cub;
+				}
+			} else if (saikuCon != null && saikuCon.getConnection() instanceof OlapConnection) {
+				OlapConnection con = (OlapConnection) saikuCon.getConnection();
 				for (Database db : con.getOlapDatabases()) {
 					Catalog cat = db.getCatalogs().get(cube.getCatalogName());
 					if (cat != null) {
@@ -212,8 +409,26 @@ public class OlapMetaExplorer {
 	}
 
 	public List<SaikuDimension> getAllDimensions(SaikuCube cube) throws SaikuOlapException {
+		return getAllDimensions(cube, false, false);
+	}
+
+	/**
+	 * Returns the dimensions of the cube, levels and root members of their hierarchies are only included if requested.
+	 */
+	public List<SaikuDimension> getAllDimensions(SaikuCube cube, boolean levels, boolean rootMembers) throws SaikuOlapException {
+		String key = cacheKey(cube, "dimensions", expandKey(levels, rootMembers));
+		List<SaikuDimension> dimensions = getCached(cube, key);
+		if (dimensions == null) {
+			long start = System.nanoTime();
+			dimensions = loadAllDimensions(cube, levels, rootMembers);
+			putCached(cube, key, dimensions, start);
+		}
+		return new ArrayList<SaikuDimension>(dimensions);
+	}
+
+	private List<SaikuDimension> loadAllDimensions(SaikuCube cube, boolean levels, boolean rootMembers) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
-		List<SaikuDimension> dimensions = ObjectUtil.convertDimensions(nativeCube.getDimensions());
+		List<SaikuDimension> dimensions = ObjectUtil.convertDimensions(nativeCube.getDimensions(), levels, rootMembers);
 		for (int i=0; i < dimensions.size();i++) {
 			SaikuDimension dim = dimensions.get(i);
 			if (dim.getName().equals("Measures") || dim.getUniqueName().equals("[Measures]")) {
@@ -226,29 +441,85 @@ public class OlapMetaExplorer {
 	}
 
 	public SaikuDimension getDimension(SaikuCube cube, String dimensionName) throws SaikuOlapException {
+		return getDimension(cube, dimensionName, false, false);
+	}
+
+	public SaikuDimension getDimension(SaikuCube cube, String dimensionName, boolean levels, boolean rootMembers) throws SaikuOlapException {
+		String key = cacheKey(cube, "dimension", dimensionName, expandKey(levels, rootMembers));
+		SaikuDimension dimension = getCached(cube, key);
+		if (dimension == null) {
+			long start = System.nanoTime();
+			dimension = loadDimension(cube, dimensionName, levels, rootMembers);
+			putCached(cube, key, dimension, start);
+		}
+		return dimension;
+	}
+
+	private SaikuDimension loadDimension(SaikuCube cube, String dimensionName, boolean levels, boolean rootMembers) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		Dimension dim = nativeCube.getDimensions().get(dimensionName);
 		if (dim != null) {
-			return ObjectUtil.convert(dim);
+			return ObjectUtil.convert(dim, levels, rootMembers);
 		}
 		return null;
 	}
 
 	public List<SaikuHierarchy> getAllHierarchies(SaikuCube cube) throws SaikuOlapException {
+		return getAllHierarchies(cube, false, false);
+	}
+
+	public List<SaikuHierarchy> getAllHierarchies(SaikuCube cube, boolean levels, boolean rootMembers) throws SaikuOlapException {
+		String key = cacheKey(cube, "hierarchies", expandKey(levels, rootMembers));
+		List<SaikuHierarchy> hierarchies = getCached(cube, key);
+		if (hierarchies == null) {
+			long start = System.nanoTime();
+			hierarchies = loadAllHierarchies(cube, levels, rootMembers);
+			putCached(cube, key, hierarchies, start);
+		}
+		return new ArrayList<SaikuHierarchy>(hierarchies);
+	}
+
+	private List<SaikuHierarchy> loadAllHierarchies(SaikuCube cube, boolean levels, boolean rootMembers) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
-		return ObjectUtil.convertHierarchies(nativeCube.getHierarchies());
+		return ObjectUtil.convertHierarchies(nativeCube.getHierarchies(), levels, rootMembers);
 	}
 
 	public SaikuHierarchy getHierarchy(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
+		return getHierarchy(cube, hierarchyName, false, false);
+	}
+
+	public SaikuHierarchy getHierarchy(SaikuCube cube, String hierarchyName, boolean levels, boolean rootMembers) throws SaikuOlapException {
+		String key = cacheKey(cube, "hierarchy", hierarchyName, expandKey(levels, rootMembers));
+		SaikuHierarchy hierarchy = getCached(cube, key);
+		if (hierarchy == null) {
+			long start = System.nanoTime();
+			hierarchy = loadHierarchy(cube, hierarchyName, levels, rootMembers);
+			putCached(cube, key, hierarchy, start);
+		}
+		return hierarchy;
+	}
+
+	private SaikuHierarchy loadHierarchy(SaikuCube cube, String hierarchyName, boolean levels, boolean rootMembers) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		Hierarchy h = nativeCube.getHierarchies().get(hierarchyName);
 		if (h != null) {
-			return ObjectUtil.convert(h);
+			return ObjectUtil.convert(h, levels, rootMembers);
 		}
 		return null;
 	}
 
 	public List<SaikuMember> getHierarchyRootMembers(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
+		String key = cacheKey(cube, "rootmembers", hierarchyName);
+		List<SaikuMember> members = getCached(cube, key);
+		if (members == null) {
+			long start = System.nanoTime();
+			members = loadHierarchyRootMembers(cube, hierarchyName);
+			putCached(cube, key, members, start);
+		}
+		return new ArrayList<SaikuMember>(members);
+	}
+
+	private List<SaikuMember> loadHierarchyRootMembers(SaikuCube cube, String hierarchyName) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		List<SaikuMember> members = new ArrayList<SaikuMember>();
 		Hierarchy h = nativeCube.getHierarchies().get(hierarchyName);
@@ -262,7 +533,7 @@ public class OlapMetaExplorer {
 		}
 		if (h!= null) {
 			try {
-				members = (ObjectUtil.convertMembers(h.getRootMembers()));
+				members = (ObjectUtil.convertMembers(cube, h.getRootMembers()));
 			} catch (OlapException e) {
 				throw new SaikuOlapException("Cannot retrieve root members of hierarchy: " + hierarchyName,e);
 			}
@@ -273,6 +544,17 @@ public class OlapMetaExplorer {
 
 
 	public List<SaikuLevel> getAllLevels(SaikuCube cube, String dimension, String hierarchy) throws SaikuOlapException {
+		String key = cacheKey(cube, "levels", dimension, hierarchy);
+		List<SaikuLevel> levels = getCached(cube, key);
+		if (levels == null) {
+			long start = System.nanoTime();
+			levels = loadAllLevels(cube, dimension, hierarchy);
+			putCached(cube, key, levels, start);
+		}
+		return new ArrayList<SaikuLevel>(levels);
+	}
+
+	private List<SaikuLevel> loadAllLevels(SaikuCube cube, String dimension, String hierarchy) throws SaikuOlapException {
 		Cube nativeCube = getNativeCube(cube);
 		Dimension dim = nativeCube.getDimensions().get(dimension);
 		if (dim != null) {
@@ -295,32 +577,33 @@ public class OlapMetaExplorer {
 	}
 
 	public List<SaikuMember> getAllMembers(SaikuCube cube, String dimension, String hierarchy, String level) throws SaikuOlapException {
+		return getAllMembers(cube, dimension, hierarchy, level, null, false, 0, 0);
+	}
+
+	/**
+	 * Returns a page of the members of a level. If a search is given only members whose caption starts with
+	 * (prefix) or contains the search, ignoring case, are returned. A limit of 0 returns all members from the offset on.
+	 */
+	public List<SaikuMember> getAllMembers(SaikuCube cube, String dimension, String hierarchy, String level,
+			String search, boolean prefix, int offset, int limit) throws SaikuOlapException {
 		try {
 			Cube nativeCube = getNativeCube(cube);
-			Dimension dim = nativeCube.getDimensions().get(dimension);
-			if (dim != null) {
-				Hierarchy h = dim.getHierarchies().get(hierarchy);
-				if (h == null) {
-					for (Hierarchy hlist : dim.getHierarchies()) {
-						if (hlist.getUniqueName().equals(hierarchy) || hlist.getName().equals(hierarchy)) {
-							h = hlist;
-						}
-					}
+			Level l = findLevel(nativeCube, dimension, hierarchy, level);
+			if (l != null) {
+				checkMemberListLimit(cube, nativeCube, l, search, offset, limit);
+				MemberSearchIndex index = getMemberSearchIndex(cube, nativeCube, l);
+				if (index != null) {
+					return index.search(l.getUniqueName(), search, prefix, offset, limit);
 				}
-
-				if (h!= null) {
-					Level l = h.getLevels().get(level);
-					if (l == null) {
-						for (Level lvl : h.getLevels()) {
-							if (lvl.getUniqueName().equals(level) || lvl.getName().equals(level)) {
-								return (ObjectUtil.convertMembers(lvl.getMembers()));
-							}
-						}
-					} else {
-						return (ObjectUtil.convertMembers(l.getMembers()));
-					}
-
+				List<Member> members;
+				// searches use Mondrian's MATCHES, paging all members of the level works on every server
+				boolean filtered = StringUtils.isNotBlank(search);
+				if (filtered ? isMondrianConnection(cube) : offset > 0 || limit > 0) {
+					members = searchMembers(cube, nativeCube, l, search, prefix, offset, limit);
+				} else {
+					members = page(filterMembers(l.getMembers(), search, prefix), offset, limit);
 				}
+				return ObjectUtil.convertMembers(cube, members);
 			}
 		} catch (OlapException e) {
 			throw new SaikuOlapException("Cannot get all members",e);
@@ -330,6 +613,243 @@ public class OlapMetaExplorer {
 
 	}
 
+	/**
+	 * Returns the number of members of a level that match the search, see {@link #getAllMembers(SaikuCube, String, String, String, String, boolean, int, int)}.
+	 */
+	public int getMemberCount(SaikuCube cube, String dimension, String hierarchy, String level,
+			String search, boolean prefix) throws SaikuOlapException {
+		try {
+			Cube nativeCube = getNativeCube(cube);
+			Level l = findLevel(nativeCube, dimension, hierarchy, level);
+			if (l == null) {
+				return 0;
+			}
+			MemberSearchIndex index = getMemberSearchIndex(cube, nativeCube, l);
+			if (index != null) {
+				return index.count(l.getUniqueName(), search, prefix);
+			}
+			if (StringUtils.isBlank(search) || isMondrianConnection(cube)) {
+				return countMembers(cube, nativeCube, l, search, prefix);
+			}
+			return filterMembers(l.getMembers(), search, prefix).size();
+		} catch (OlapException e) {
+			throw new SaikuOlapException("Cannot count members of level: " + level, e);
+		}
+	}
+
+	/**
+	 * Returns the approximate number of members of each level of a hierarchy, keyed by the level unique name.
+	 * Mondrian takes the numbers from the schema (approxRowCount) or counts the members once.
+	 */
+	public Map<String, Integer> getLevelCardinalities(SaikuCube cube, String dimension, String hierarchy) throws SaikuOlapException {
+		Hierarchy h = findHierarchy(getNativeCube(cube), dimension, hierarchy);
+		if (h == null) {
+			return new LinkedHashMap<String, Integer>();
+		}
+		return new LinkedHashMap<String, Integer>(getLevelCardinalities(cube, h));
+	}
+
+	/**
+	 * Returns the approximate number of members of a level, see {@link #getLevelCardinalities(SaikuCube, String, String)}.
+	 */
+	public int getLevelCardinality(SaikuCube cube, String dimension, String hierarchy, String level) throws SaikuOlapException {
+		Level l = findLevel(getNativeCube(cube), dimension, hierarchy, level);
+		if (l == null) {
+			return 0;
+		}
+		return getLevelCardinality(cube, l);
+	}
+
+	private int getLevelCardinality(SaikuCube cube, Level level) throws SaikuOlapException {
+		Integer cardinality = getLevelCardinalities(cube, level.getHierarchy()).get(level.getUniqueName());
+		return cardinality != null ? cardinality : 0;
+	}
+
+	private Map<String, Integer> getLevelCardinalities(SaikuCube cube, Hierarchy h) throws SaikuOlapException {
+		String key = cacheKey(cube, "cardinality", h.getUniqueName());
+		Map<String, Integer> cardinalities = getCached(cube, key);
+		if (cardinalities == null) {
+			long start = System.nanoTime();
+			cardinalities = loadLevelCardinalities(cube, h);
+			putCached(cube, key, cardinalities, start);
+		}
+		return cardinalities;
+	}
+
+	private Map<String, Integer> loadLevelCardinalities(SaikuCube cube, Hierarchy h) throws SaikuOlapException {
+		Map<String, Integer> cardinalities = new LinkedHashMap<String, Integer>();
+		Cube nativeCube = getNativeCube(cube);
+		for (Level l : h.getLevels()) {
+			MemberSearchIndex index = getMemberSearchIndex(cube, nativeCube, l);
+			cardinalities.put(l.getUniqueName(), index != null ? index.count(l.getUniqueName(), null, false) : l.getCardinality());
+		}
+		return cardinalities;
+	}
+
+	/**
+	 * Refuses to list all members of a level from the offset on if there are more than
+	 * {@link SaikuProperties#olapMemberListLimit}. A search or a limit is needed then.
+	 */
+	private void checkMemberListLimit(SaikuCube cube, Cube nativeCube, Level level, String search, int offset, int limit)
+			throws SaikuOlapException {
+		int maxMembers = memberListLimit;
+		if (maxMembers <= 0 || limit > 0 || StringUtils.isNotBlank(search)) {
+			return;
+		}
+		int cardinality = getLevelCardinality(cube, level);
+		if (cardinality - offset > maxMembers) {
+			throw new MemberListLimitException("Level " + level.getUniqueName() + " has about " + cardinality
+					+ " members, listing more than " + maxMembers + " members needs a search or a limit");
+		}
+	}
+
+	private Hierarchy findHierarchy(Cube nativeCube, String dimension, String hierarchy) {
+		Dimension dim = nativeCube.getDimensions().get(dimension);
+		if (dim != null) {
+			Hierarchy h = dim.getHierarchies().get(hierarchy);
+			if (h == null) {
+				for (Hierarchy hlist : dim.getHierarchies()) {
+					if (hlist.getUniqueName().equals(hierarchy) || hlist.getName().equals(hierarchy)) {
+						h = hlist;
+					}
+				}
+			}
+			return h;
+		}
+		return null;
+	}
+
+	private Level findLevel(Cube nativeCube, String dimension, String hierarchy, String level) {
+		Hierarchy h = findHierarchy(nativeCube, dimension, hierarchy);
+		if (h!= null) {
+			Level l = h.getLevels().get(level);
+			if (l == null) {
+				for (Level lvl : h.getLevels()) {
+					if (lvl.getUniqueName().equals(level) || lvl.getName().equals(level)) {
+						return lvl;
+					}
+				}
+			}
+			return l;
+		}
+		return null;
+	}
+
+	private MemberSearchIndex getMemberSearchIndex(SaikuCube cube, Cube nativeCube, Level level) {
+		if (level == null) {
+			return null;
+		}
+		MemberSearchIndex index = MemberSearchIndexes.getInstance().get(cube.getConnectionName(), cube.getCatalogName(),
+				cube.getSchemaName(), nativeCube.getName(), level.getHierarchy().getUniqueName(), getRoleName(cube.getConnectionName()));
+		return index != null && index.hasLevel(level.getUniqueName()) ? index : null;
+	}
+
+	private boolean isMondrianConnection(SaikuCube cube) {
+		OlapConnection con = connections.getOlapConnection(cube.getConnectionName());
+		return con != null && SaikuMondrianHelper.isMondrianConnection(con);
+	}
+
+	/**
+	 * Pushes the search down to Mondrian as a MATCHES filter, which Mondrian evaluates in SQL if the dialect supports it.
+	 * Paging is pushed down with Subset, so only the requested page of members is read.
+	 */
+	private List<Member> searchMembers(SaikuCube cube, Cube nativeCube, Level level, String search, boolean prefix,
+			int offset, int limit) throws OlapException {
+		String set = createMemberSet(level, search, prefix);
+		if (offset > 0 || limit > 0) {
+			set = "Subset(" + set + ", " + Math.max(offset, 0) + (limit > 0 ? ", " + limit : "") + ")";
+		}
+		return executeMemberQuery(cube, nativeCube, set);
+	}
+
+	/**
+	 * Returns the members of the set by putting it on rows of an otherwise empty query.
+	 */
+	private List<Member> executeMemberQuery(SaikuCube cube, Cube nativeCube, String set) throws OlapException {
+		String mdx = "SELECT {} ON COLUMNS, " + set + " ON ROWS FROM " + nativeCube.getUniqueName();
+		OlapConnection con = connections.getOlapConnection(cube.getConnectionName());
+		con.setCatalog(cube.getCatalogName());
+		OlapStatement stmt = con.createStatement();
+		try {
+			CellSet cellSet = stmt.executeOlapQuery(mdx);
+			List<Member> members = new ArrayList<Member>();
+			for (Position position : cellSet.getAxes().get(1).getPositions()) {
+				members.add(position.getMembers().get(0));
+			}
+			return members;
+		} finally {
+			closeStatement(stmt);
+		}
+	}
+
+	private int countMembers(SaikuCube cube, Cube nativeCube, Level level, String search, boolean prefix) throws OlapException {
+		String mdx = "WITH MEMBER [Measures].[Saiku Member Count] AS Count(" + createMemberSet(level, search, prefix) + ") "
+				+ "SELECT {[Measures].[Saiku Member Count]} ON COLUMNS FROM " + nativeCube.getUniqueName();
+		OlapConnection con = connections.getOlapConnection(cube.getConnectionName());
+		con.setCatalog(cube.getCatalogName());
+		OlapStatement stmt = con.createStatement();
+		try {
+			CellSet cellSet = stmt.executeOlapQuery(mdx);
+			Object value = cellSet.getCell(0).getValue();
+			return value instanceof Number ? ((Number) value).intValue() : 0;
+		} finally {
+			closeStatement(stmt);
+		}
+	}
+
+	private static void closeStatement(OlapStatement stmt) {
+		try {
+			stmt.close();
+		} catch (SQLException e) {
+			log.debug("Cannot close member search statement", e);
+		}
+	}
+
+	/**
+	 * Returns the members of the level, filtered by their caption if a search is given.
+	 */
+	private static String createMemberSet(Level level, String search, boolean prefix) {
+		if (StringUtils.isBlank(search)) {
+			return level.getUniqueName() + ".Members";
+		}
+		StringBuilder pattern = new StringBuilder("(?i)");
+		if (!prefix) {
+			pattern.append(".*");
+		}
+		for (char c : search.toCharArray()) {
+			if (!Character.isLetterOrDigit(c) && c != ' ') {
+				pattern.append('\\');
+			}
+			pattern.append(c);
+		}
+		pattern.append(".*");
+		return "Filter(" + level.getUniqueName() + ".Members, "
+				+ level.getHierarchy().getUniqueName() + ".CurrentMember.Caption MATCHES \""
+				+ pattern.toString().replace("\"", "\"\"") + "\")";
+	}
+
+	private static List<Member> filterMembers(List<Member> members, String search, boolean prefix) {
+		if (StringUtils.isBlank(search)) {
+			return members;
+		}
+		String lowerSearch = search.toLowerCase();
+		List<Member> filtered = new ArrayList<Member>();
+		for (Member m : members) {
+			String caption = m.getCaption() != null ? m.getCaption() : m.getName();
+			String lowerCaption = caption.toLowerCase();
+			if (prefix ? lowerCaption.startsWith(lowerSearch) : lowerCaption.contains(lowerSearch)) {
+				filtered.add(m);
+			}
+		}
+		return filtered;
+	}
+
+	private static <T> List<T> page(List<T> list, int offset, int limit) {
+		int from = Math.min(Math.max(offset, 0), list.size());
+		int to = limit > 0 ? Math.min(from + limit, list.size()) : list.size();
+		return list.subList(from, to);
+	}
+
 	public List<SaikuMember> getMemberChildren(SaikuCube cube, String uniqueMemberName) throws SaikuOlapException {
 		List<SaikuMember> members = new ArrayList<SaikuMember>();
 		try {
@@ -338,7 +858,7 @@ public class OlapMetaExplorer {
 			Member m = nativeCube.lookupMember(memberList);
 			if (m != null) {
 				for (Member c :  m.getChildMembers()) {
-					SaikuMember sm = ObjectUtil.convert(c);
+					SaikuMember sm = ObjectUtil.convert(cube, c);
 					members.add(sm);
 				}
 			}
@@ -349,7 +869,79 @@ public class OlapMetaExplorer {
 		return members;
 	}
 
+	/**
+	 * Returns the children of several members at once, keyed by the given unique names in their order.
+	 * The children are read with one query per hierarchy over all its parents, so that the server can load
+	 * them in a batch. Names that resolve to the same member get the same children, members that cannot
+	 * be found have none.
+	 */
+	public Map<String, List<SaikuMember>> getMemberChildren(SaikuCube cube, List<String> uniqueMemberNames) throws SaikuOlapException {
+		Map<String, List<SaikuMember>> children = new LinkedHashMap<String, List<SaikuMember>>();
+		try {
+			Cube nativeCube = getNativeCube(cube);
+			Map<String, List<String>> requestedNames = new HashMap<String, List<String>>();
+			Map<String, StringBuilder> sets = new LinkedHashMap<String, StringBuilder>();
+			for (String uniqueMemberName : uniqueMemberNames) {
+				if (children.containsKey(uniqueMemberName)) {
+					continue;
+				}
+				children.put(uniqueMemberName, new ArrayList<SaikuMember>());
+				Member m = null;
+				try {
+					m = nativeCube.lookupMember(IdentifierNode.parseIdentifier(uniqueMemberName).getSegmentList());
+				} catch (RuntimeException e) {
+					log.debug("Cannot parse member " + uniqueMemberName, e);
+				}
+				if (m == null) {
+					continue;
+				}
+				List<String> aliases = requestedNames.get(m.getUniqueName());
+				if (aliases == null) {
+					aliases = new ArrayList<String>();
+					requestedNames.put(m.getUniqueName(), aliases);
+					String hierarchy = m.getHierarchy().getUniqueName();
+					StringBuilder set = sets.get(hierarchy);
+					if (set == null) {
+						set = new StringBuilder("{");
+						sets.put(hierarchy, set);
+					} else {
+						set.append(", ");
+					}
+					set.append(m.getUniqueName()).append(".Children");
+				}
+				aliases.add(uniqueMemberName);
+			}
+			for (StringBuilder set : sets.values()) {
+				set.append("}");
+				for (Member child : executeMemberQuery(cube, nativeCube, set.toString())) {
+					Member parent = child.getParentMember();
+					List<String> aliases = parent != null ? requestedNames.get(parent.getUniqueName()) : null;
+					if (aliases != null) {
+						SaikuMember sm = ObjectUtil.convert(cube, child);
+						for (String alias : aliases) {
+							children.get(alias).add(sm);
+						}
+					}
+				}
+			}
+		} catch (OlapException e) {
+			throw new SaikuOlapException("Cannot get child members of members:" + uniqueMemberNames, e);
+		}
+		return children;
+	}
+
 	public List<SaikuMember> getAllMeasures(SaikuCube cube) throws SaikuOlapException {
+		String key = cacheKey(cube, "measures");
+		List<SaikuMember> measures = getCached(cube, key);
+		if (measures == null) {
+			long start = System.nanoTime();
+			measures = loadAllMeasures(cube);
+			putCached(cube, key, measures, start);
+		}
+		return new ArrayList<SaikuMember>(measures);
+	}
+
+	private List<SaikuMember> loadAllMeasures(SaikuCube cube) throws SaikuOlapException {
 		List<SaikuMember> measures = new ArrayList<SaikuMember>();
 		try {
 			Cube nativeCube = getNativeCube(cube);
@@ -360,7 +952,7 @@ public class OlapMetaExplorer {
 			}
 			if (measures.size() == 0) {
 				Hierarchy hierarchy = nativeCube.getDimensions().get("Measures").getDefaultHierarchy();
-				measures = (ObjectUtil.convertMembers(hierarchy.getRootMembers()));
+				measures = (ObjectUtil.convertMembers(cube, hierarchy.getRootMembers()));
 			}
 		} catch (OlapException e) {
 			throw new SaikuOlapException("Cannot get measures for cube:"+cube.getName(),e);
@@ -375,7 +967,7 @@ public class OlapMetaExplorer {
 			Cube nativeCube = getNativeCube(cube);
 			Member m = nativeCube.lookupMember(IdentifierNode.parseIdentifier(uniqueMemberName).getSegmentList());
 			if (m != null) {
-				return ObjectUtil.convert(m);
+				return ObjectUtil.convert(cube, m);
 			}
 			return null;
 		} catch (Exception e) {
@@ -383,4 +975,66 @@ public class OlapMetaExplorer {
 		}
 	}
 
+	public OlapMetadataCache getMetadataCache() {
+		return cache;
+	}
+
+	/**
+	 * Builds the cache key of a metadata entry below the connection of the cube.
+	 * The role of the connection is part of the key as it restricts the visible metadata.
+	 */
+	private String cacheKey(SaikuCube cube, String... parts) {
+		StringBuilder key = new StringBuilder();
+		key.append(getRoleName(cube.getConnectionName()))
+			.append('|').append(cube.getCatalogName())
+			.append('|').append(cube.getSchemaName())
+			.append('|').append(cube.getName());
+		for (String part : parts) {
+			key.append('|').append(part);
+		}
+		return key.toString();
+	}
+
+	private static String expandKey(boolean levels, boolean rootMembers) {
+		return (levels ? "levels" : "") + (rootMembers ? "+rootmembers" : "");
+	}
+
+	/**
+	 * Returns the role of the connection. Datasources without security always have the same role,
+	 * so they are not connected just to read it, e.g. while the metadata restored from a snapshot is served.
+	 */
+	private String getRoleName(String connectionName) {
+		if (!isSecured(connectionName)) {
+			return null;
+		}
+		try {
+			OlapConnection con = connections.getOlapConnection(connectionName);
+			if (con != null) {
+				return con.getRoleName();
+			}
+		} catch (Exception e) {
+			log.debug("Cannot determine role of connection " + connectionName, e);
+		}
+		return null;
+	}
+
+	private boolean isSecured(String connectionName) {
+		IDatasourceManager datasources = connections.getDataSourceManager();
+		SaikuDatasource datasource = datasources != null ? datasources.getDatasource(connectionName) : null;
+		if (connections instanceof AbstractConnectionManager) {
+			return ((AbstractConnectionManager) connections).isDatasourceSecurityEnabled(datasource);
+		}
+		return datasource != null && datasource.getProperties() != null
+			&& Boolean.parseBoolean(datasource.getProperties().getProperty(ISaikuConnection.SECURITY_ENABLED_KEY, "false"));
+	}
+
+	@SuppressWarnings("unchecked")
+	private <T> T getCached(SaikuCube cube, String key) {
+		return (T) cache.get(cube.getConnectionName(), key);
+	}
+
+	private void putCached(SaikuCube cube, String key, Object value, long start) {
+		cache.put(cube.getConnectionName(), key, value, System.nanoTime() - start);
+	}
+
 }
@@ -0,0 +1,147 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.discover;
+
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.saiku.olap.util.SaikuMemberCache;
+
+/**
+ * Server-wide cache of converted cube metadata (dimensions, hierarchies, levels, measures and root members).
+ * Entries are grouped by connection so that refreshing or flushing a connection only drops its own metadata.
+ * The keys below a connection are built by {@link OlapMetaExplorer} and contain role, catalog, schema and cube.
+ * Invalidating a connection also drops its converted members in {@link SaikuMemberCache}.
+ */
+public class OlapMetadataCache {
+
+	private static final OlapMetadataCache instance = new OlapMetadataCache();
+
+	private final ConcurrentMap<String, ConcurrentMap<String, Object>> entries = new ConcurrentHashMap<String, ConcurrentMap<String, Object>>();
+
+	private final AtomicLong hits = new AtomicLong();
+	private final AtomicLong misses = new AtomicLong();
+	private final AtomicLong builds = new AtomicLong();
+	private final AtomicLong buildTime = new AtomicLong();
+	private final AtomicLong invalidations = new AtomicLong();
+
+	public static OlapMetadataCache getInstance() {
+		return instance;
+	}
+
+	public Object get(String connectionName, String key) {
+		Map<String, Object> connectionEntries = entries.get(connectionName);
+		Object value = connectionEntries != null ? connectionEntries.get(key) : null;
+		if (value != null) {
+			hits.incrementAndGet();
+		} else {
+			misses.incrementAndGet();
+		}
+		return value;
+	}
+
+	/**
+	 * Stores a freshly built value.
+	 * @param buildNanos the time it took to build the value, recorded for the statistics.
+	 */
+	public void put(String connectionName, String key, Object value, long buildNanos) {
+		builds.incrementAndGet();
+		buildTime.addAndGet(buildNanos);
+		if (value == null) {
+			return;
+		}
+		getConnectionEntries(connectionName).put(key, value);
+	}
+
+	private ConcurrentMap<String, Object> getConnectionEntries(String connectionName) {
+		ConcurrentMap<String, Object> connectionEntries = entries.get(connectionName);
+		if (connectionEntries == null) {
+			ConcurrentMap<String, Object> created = new ConcurrentHashMap<String, Object>();
+			connectionEntries = entries.putIfAbsent(connectionName, created);
+			if (connectionEntries == null) {
+				connectionEntries = created;
+			}
+		}
+		return connectionEntries;
+	}
+
+	public void invalidate(String connectionName) {
+		SaikuMemberCache.getInstance().invalidate(connectionName);
+		if (connectionName != null && entries.remove(connectionName) != null) {
+			invalidations.incrementAndGet();
+		}
+	}
+
+	public void invalidateAll() {
+		SaikuMemberCache.getInstance().invalidateAll();
+		entries.clear();
+		invalidations.incrementAndGet();
+	}
+
+	/**
+	 * Returns a copy of the cached entries of the connection, e.g. to persist them.
+	 */
+	public Map<String, Object> getEntries(String connectionName) {
+		Map<String, Object> connectionEntries = entries.get(connectionName);
+		return connectionEntries != null ? new HashMap<String, Object>(connectionEntries) : new HashMap<String, Object>();
+	}
+
+	/**
+	 * Adds previously built entries of the connection, e.g. restored from a snapshot, without counting them as builds.
+	 */
+	public void putAll(String connectionName, Map<String, Object> values) {
+		for (Map.Entry<String, Object> entry : values.entrySet()) {
+			if (entry.getValue() != null) {
+				getConnectionEntries(connectionName).putIfAbsent(entry.getKey(), entry.getValue());
+			}
+		}
+	}
+
+	public int size() {
+		int size = 0;
+		for (Map<String, Object> connectionEntries : entries.values()) {
+			size += connectionEntries.size();
+		}
+		return size;
+	}
+
+	public Map<String, Object> getStatistics() {
+		long hitCount = hits.get();
+		long missCount = misses.get();
+		long buildCount = builds.get();
+		long requests = hitCount + missCount;
+		Map<String, Object> stats = new LinkedHashMap<String, Object>();
+		stats.put("entries", size());
+		stats.put("hits", hitCount);
+		stats.put("misses", missCount);
+		stats.put("hitRate", requests > 0 ? (double) hitCount / requests : 0d);
+		stats.put("builds", buildCount);
+		stats.put("buildTimeMs", buildTime.get() / 1000000);
+		stats.put("averageBuildTimeMs", buildCount > 0 ? (double) buildTime.get() / buildCount / 1000000 : 0d);
+		stats.put("invalidations", invalidations.get());
+		stats.put("members", SaikuMemberCache.getInstance().size());
+		return stats;
+	}
+
+}
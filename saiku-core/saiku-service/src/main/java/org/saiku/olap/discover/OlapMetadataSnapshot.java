@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.discover;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.Serializable;
+import java.net.URL;
+import java.security.MessageDigest;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.TreeMap;
+
+import org.saiku.datasources.connection.ISaikuConnection;
+import org.saiku.olap.dto.SaikuConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Snapshot of the discovered metadata of all connections that is written to a local file, so that it can be
+ * served right after a restart while the connections are opened in the background. Every connection is stored
+ * with a fingerprint of its datasource properties and of the timestamp and size of its Mondrian schema file,
+ * a connection whose fingerprint changed is ignored.
+ */
+public class OlapMetadataSnapshot implements Serializable {
+
+	private static final long serialVersionUID = 2850398914264720143L;
+
+	private static final Logger log = LoggerFactory.getLogger(OlapMetadataSnapshot.class);
+
+	private final Map<String, ConnectionSnapshot> connections = new HashMap<String, ConnectionSnapshot>();
+
+	/**
+	 * Reads the snapshot, returns null if there is none or it cannot be read.
+	 */
+	public static OlapMetadataSnapshot read(File file) {
+		if (!file.isFile()) {
+			return null;
+		}
+		ObjectInputStream in = null;
+		try {
+			in = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)));
+			return (OlapMetadataSnapshot) in.readObject();
+		} catch (Exception e) {
+			log.warn("Discarding unreadable metadata snapshot " + file, e);
+			return null;
+		} finally {
+			if (in != null) {
+				try {
+					in.close();
+				} catch (Exception e) {
+					log.debug("Cannot close metadata snapshot " + file, e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Writes the snapshot to a temporary file first and replaces the old snapshot with it.
+	 */
+	public synchronized void write(File file) throws Exception {
+		File tmp = new File(file.getPath() + ".tmp");
+		ObjectOutputStream out = new ObjectOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+		try {
+			out.writeObject(this);
+		} finally {
+			out.close();
+		}
+		if (file.exists() && !file.delete()) {
+			throw new Exception("Cannot replace metadata snapshot " + file);
+		}
+		if (!tmp.renameTo(file)) {
+			throw new Exception("Cannot write metadata snapshot " + file);
+		}
+	}
+
+	public synchronized void put(String connectionName, String fingerprint, SaikuConnection connection, Map<String, Object> metadata) {
+		connections.put(connectionName, new ConnectionSnapshot(fingerprint, connection, new HashMap<String, Object>(metadata)));
+	}
+
+	public synchronized void remove(String connectionName) {
+		connections.remove(connectionName);
+	}
+
+	/**
+	 * Returns the connection if the snapshot has it with the same fingerprint.
+	 */
+	public synchronized SaikuConnection getConnection(String connectionName, String fingerprint) {
+		ConnectionSnapshot snapshot = getValid(connectionName, fingerprint);
+		return snapshot != null ? snapshot.connection : null;
+	}
+
+	/**
+	 * Returns the metadata cache entries of the connection if the snapshot has it with the same fingerprint.
+	 */
+	public synchronized Map<String, Object> getMetadata(String connectionName, String fingerprint) {
+		ConnectionSnapshot snapshot = getValid(connectionName, fingerprint);
+		return snapshot != null ? snapshot.metadata : new HashMap<String, Object>();
+	}
+
+	public synchronized List<String> getConnectionNames() {
+		return new ArrayList<String>(connections.keySet());
+	}
+
+	private ConnectionSnapshot getValid(String connectionName, String fingerprint) {
+		ConnectionSnapshot snapshot = connections.get(connectionName);
+		if (snapshot != null && !snapshot.fingerprint.equals(fingerprint)) {
+			log.info("Discarding stale metadata snapshot of connection " + connectionName);
+			connections.remove(connectionName);
+			return null;
+		}
+		return snapshot;
+	}
+
+	/**
+	 * Returns a checksum of the datasource properties and of the last modification and size of the
+	 * schema file referenced by the Catalog of the connection url, if it is a local file.
+	 */
+	public static String fingerprint(Properties properties) {
+		StringBuilder content = new StringBuilder();
+		for (Map.Entry<Object, Object> entry : new TreeMap<Object, Object>(properties).entrySet()) {
+			content.append(entry.getKey()).append('=').append(entry.getValue()).append('\n');
+		}
+		File schema = getSchemaFile(properties.getProperty(ISaikuConnection.URL_KEY));
+		if (schema != null) {
+			content.append(schema.getPath()).append('@').append(schema.lastModified()).append('/').append(schema.length());
+		}
+		try {
+			MessageDigest digest = MessageDigest.getInstance("MD5");
+			StringBuilder hex = new StringBuilder();
+			for (byte b : digest.digest(content.toString().getBytes("UTF-8"))) {
+				hex.append(Integer.toHexString((b & 0xff) | 0x100).substring(1));
+			}
+			return hex.toString();
+		} catch (Exception e) {
+			return Integer.toHexString(content.toString().hashCode());
+		}
+	}
+
+	private static File getSchemaFile(String url) {
+		if (url == null) {
+			return null;
+		}
+		for (String part : url.split(";")) {
+			String[] keyValue = part.split("=", 2);
+			if (keyValue.length == 2 && keyValue[0].trim().equalsIgnoreCase("Catalog")) {
+				String catalog = keyValue[1].trim();
+				try {
+					File file;
+					if (catalog.startsWith("res:")) {
+						URL resource = Thread.currentThread().getContextClassLoader().getResource(catalog.substring(4));
+						if (resource == null || !"file".equals(resource.getProtocol())) {
+							return null;
+						}
+						file = new File(resource.toURI());
+					} else if (catalog.startsWith("file:")) {
+						file = new File(new URL(catalog).toURI());
+					} else {
+						file = new File(catalog);
+					}
+					return file.isFile() ? file : null;
+				} catch (Exception e) {
+					log.debug("Cannot resolve schema file " + catalog, e);
+					return null;
+				}
+			}
+		}
+		return null;
+	}
+
+	private static class ConnectionSnapshot implements Serializable {
+
+		private static final long serialVersionUID = -1523645000424307339L;
+
+		private final String fingerprint;
+		private final SaikuConnection connection;
+		private final HashMap<String, Object> metadata;
+
+		ConnectionSnapshot(String fingerprint, SaikuConnection connection, HashMap<String, Object> metadata) {
+			this.fingerprint = fingerprint;
+			this.connection = connection;
+			this.metadata = metadata;
+		}
+	}
+
+}
@@ -19,7 +19,11 @@
  */
 package org.saiku.olap.dto;
 
-public  class AbstractSaikuObject implements ISaikuObject,Comparable<ISaikuObject>  {
+import java.io.Serializable;
+
+public  class AbstractSaikuObject implements ISaikuObject,Comparable<ISaikuObject>,Serializable  {
+
+	private static final long serialVersionUID = -4306296294436312516L;
 
 	private String uniqueName;
 	private String name;
@@ -0,0 +1,70 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.dto;
+
+import java.util.List;
+
+/**
+ * A value to write back into a cell of a query result, see {@link org.olap4j.Cell#setValue}.
+ */
+public class SaikuCellValue {
+
+	private List<Integer> position;
+	private String value;
+	private String allocationPolicy;
+
+	public SaikuCellValue() {}
+
+	public SaikuCellValue(List<Integer> position, String value, String allocationPolicy) {
+		this.position = position;
+		this.value = value;
+		this.allocationPolicy = allocationPolicy;
+	}
+
+	/**
+	 * Coordinates of the cell in the result, one per axis.
+	 */
+	public List<Integer> getPosition() {
+		return position;
+	}
+
+	public void setPosition(List<Integer> position) {
+		this.position = position;
+	}
+
+	public String getValue() {
+		return value;
+	}
+
+	public void setValue(String value) {
+		this.value = value;
+	}
+
+	/**
+	 * Name of an {@link org.olap4j.AllocationPolicy}, EQUAL_ALLOCATION if empty.
+	 */
+	public String getAllocationPolicy() {
+		return allocationPolicy;
+	}
+
+	public void setAllocationPolicy(String allocationPolicy) {
+		this.allocationPolicy = allocationPolicy;
+	}
+}
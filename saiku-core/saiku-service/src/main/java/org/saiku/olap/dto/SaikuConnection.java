@@ -19,11 +19,13 @@
  */
 package org.saiku.olap.dto;
 
+import java.util.ArrayList;
 import java.util.List;
 
 public class SaikuConnection extends AbstractSaikuObject {
 	
 	private List<SaikuCatalog> catalogs;
+	private String error;
 
 	public SaikuConnection(){
 		super(null,null);
@@ -33,9 +35,21 @@ public class SaikuConnection extends AbstractSaikuObject {
 		super(connectionName,connectionName);
 		this.catalogs = catalogs;
 	}
+
+	/**
+	 * Creates a connection that could not be discovered, it has no catalogs.
+	 */
+	public SaikuConnection(String connectionName, String error) {
+		this(connectionName, new ArrayList<SaikuCatalog>());
+		this.error = error;
+	}
 	
 	public List<SaikuCatalog> getCatalogs() {
 		return catalogs;
 	}
 
+	public String getError() {
+		return error;
+	}
+
 }
@@ -40,6 +40,14 @@ public class CellDataSet implements Serializable {
     
     public int runtime;
 
+    private boolean truncated = false;
+
+    private long totalCells;
+
+    private int totalRows;
+
+    private int totalColumns;
+
     public CellDataSet() {
         super();
     }
@@ -111,4 +119,39 @@ public class CellDataSet implements Serializable {
 	public void setRuntime(int runtime) {
 		this.runtime = runtime;
 	}
+
+	/**
+	 * @return true if the result exceeded the cell limit and only a preview is contained
+	 */
+	public boolean isTruncated() {
+		return truncated;
+	}
+
+	public void setTruncated(boolean truncated) {
+		this.truncated = truncated;
+	}
+
+	public long getTotalCells() {
+		return totalCells;
+	}
+
+	public void setTotalCells(long totalCells) {
+		this.totalCells = totalCells;
+	}
+
+	public int getTotalRows() {
+		return totalRows;
+	}
+
+	public void setTotalRows(int totalRows) {
+		this.totalRows = totalRows;
+	}
+
+	public int getTotalColumns() {
+		return totalColumns;
+	}
+
+	public void setTotalColumns(int totalColumns) {
+		this.totalColumns = totalColumns;
+	}
 }
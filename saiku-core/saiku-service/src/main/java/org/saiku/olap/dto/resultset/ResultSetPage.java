@@ -0,0 +1,85 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.dto.resultset;
+
+import java.util.List;
+
+/**
+ * One page of rows read from an open drillthrough cursor.
+ */
+public class ResultSetPage {
+
+	private String cursor;
+	private String[] columns;
+	private String[] columnTypes;
+	private List<Object[]> rows;
+	private int offset;
+	private boolean more;
+
+	public ResultSetPage() {}
+
+	public ResultSetPage(String cursor, String[] columns, String[] columnTypes, List<Object[]> rows, int offset, boolean more) {
+		this.cursor = cursor;
+		this.columns = columns;
+		this.columnTypes = columnTypes;
+		this.rows = rows;
+		this.offset = offset;
+		this.more = more;
+	}
+
+	/**
+	 * Id of the cursor to fetch the next page from.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	public String[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Value type of every column: INTEGER, NUMBER, DATE, BOOLEAN or STRING.
+	 */
+	public String[] getColumnTypes() {
+		return columnTypes;
+	}
+
+	/**
+	 * The rows, values are typed according to their column and null for SQL NULL.
+	 */
+	public List<Object[]> getRows() {
+		return rows;
+	}
+
+	/**
+	 * Number of rows read before this page.
+	 */
+	public int getOffset() {
+		return offset;
+	}
+
+	/**
+	 * True if there are more rows after this page, the cursor is closed otherwise.
+	 */
+	public boolean hasMore() {
+		return more;
+	}
+}
@@ -69,6 +69,21 @@ public interface IQuery {
 	public void setStatement(OlapStatement os);
 	public OlapStatement getStatement();
 	public void cancel() throws Exception;
+	/**
+	 * Returns the model version, which is increased with every change to the query.
+	 * Cached values (e.g. the generated mdx) are only valid for the version they were built with.
+	 */
+	public int getVersion();
+	/**
+	 * Marks the query as changed. Has to be called after the query model is modified
+	 * without using the methods of this interface (e.g. changing selections of a QueryDimension).
+	 */
+	public void invalidate();
+	/**
+	 * Returns an independent copy of the query model that can be changed without affecting this query.
+	 * Tag, scenario, cellset and statement are not copied.
+	 */
+	public IQuery copy() throws SaikuOlapException;
 	
 
 }
@@ -54,6 +54,11 @@ public class MdxQuery implements IQuery {
 	private Scenario scenario;
 	private CellSet cellset;
 	private OlapStatement statement;
+	private int version = 0;
+
+	private Cube nativeCube;
+	private int nativeCubeVersion = -1;
+	private int saikuCubeVersion = -1;
 	
 	public MdxQuery(OlapConnection con, SaikuCube cube, String name, String mdx) {
 		this.cube = cube;
@@ -67,6 +72,9 @@ public class MdxQuery implements IQuery {
 	}
 
 	public SaikuCube getSaikuCube() {
+		if (saikuCubeVersion == version) {
+			return cube;
+		}
 		try {
 			if (connection != null && mdx != null && mdx.length() > 0) {
 				for (Database db : connection.getOlapDatabases()) {
@@ -75,7 +83,9 @@ public class MdxQuery implements IQuery {
 						for (Schema schema : cat.getSchemas()) {
 								for (Cube cub : schema.getCubes()) {
 									if (cub.getName().equals(cube.getName()) || cub.getUniqueName().equals(cube.getName())) {
-										cube = new SaikuCube(cube.getConnectionName(),getCube().getUniqueName(), getCube().getName(), cube.getCatalogName(), schema.getName());
+										Cube nc = getCube();
+										cube = new SaikuCube(cube.getConnectionName(),nc.getUniqueName(), nc.getName(), cube.getCatalogName(), schema.getName());
+										saikuCubeVersion = version;
 									}
 								}
 							}
@@ -93,10 +103,14 @@ public class MdxQuery implements IQuery {
     }
     
     public void setMdx(String mdx) {
+    	if (this.mdx == null || !this.mdx.equals(mdx)) {
+    		invalidate();
+    	}
     	this.mdx = mdx;
     }
 
 	public void resetQuery() {
+		invalidate();
 		this.mdx = "";
 	}
     
@@ -150,6 +164,15 @@ public class MdxQuery implements IQuery {
 	}
 
 	public Cube getCube() {
+		if (nativeCube != null && nativeCubeVersion == version) {
+			return nativeCube;
+		}
+		nativeCube = lookupCube();
+		nativeCubeVersion = version;
+		return nativeCube;
+	}
+
+	private Cube lookupCube() {
         final MdxParserFactory parserFactory =
             connection.getParserFactory();
         MdxParser mdxParser =
@@ -214,6 +237,9 @@ public class MdxQuery implements IQuery {
 	}
 
 	public void setScenario(Scenario scenario) {
+		if (this.scenario != scenario) {
+			invalidate();
+		}
 		this.scenario = scenario;
 	}
 	
@@ -256,4 +282,18 @@ public class MdxQuery implements IQuery {
 		}
 		this.statement = null;
 	}
+
+	public IQuery copy() throws SaikuOlapException {
+		MdxQuery copy = new MdxQuery(connection, cube, name, mdx);
+		copy.properties = (Properties) this.properties.clone();
+		return copy;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public void invalidate() {
+		version++;
+	}
 }
@@ -25,6 +25,7 @@ import java.io.Writer;
 import java.util.Map;
 import java.util.Properties;
 
+import org.apache.commons.lang.StringUtils;
 import org.olap4j.Axis;
 import org.olap4j.Axis.Standard;
 import org.olap4j.CellSet;
@@ -35,6 +36,8 @@ import org.olap4j.impl.IdentifierParser;
 import org.olap4j.mdx.ParseTreeWriter;
 import org.olap4j.metadata.Catalog;
 import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Level;
+import org.olap4j.metadata.Member;
 import org.olap4j.query.Query;
 import org.olap4j.query.QueryAxis;
 import org.olap4j.query.QueryDimension;
@@ -69,6 +72,12 @@ public class OlapQuery implements IQuery {
 	private OlapStatement statement = null;
 
 	private OlapConnection connection;
+
+	private int version = 0;
+
+	private String mdx = null;
+
+	private int mdxVersion = -1;
 	
 	public OlapQuery(Query query, OlapConnection connection, SaikuCube cube, boolean applyDefaultProperties) {
 		this.query = query;
@@ -85,6 +94,7 @@ public class OlapQuery implements IQuery {
 	
 	public void swapAxes() {
 		this.query.swapAxes();
+		invalidate();
 	}
 	
 	public Map<Axis, QueryAxis> getAxes() {
@@ -120,6 +130,7 @@ public class OlapQuery implements IQuery {
 	}
 
 	public void moveDimension(QueryDimension dimension, Axis axis, int position) {
+		invalidate();
 		dimension.setHierarchizeMode(HierarchizeMode.PRE);
         QueryAxis oldQueryAxis = findAxis(dimension);
         QueryAxis newQueryAxis = query.getAxis(axis);
@@ -170,9 +181,13 @@ public class OlapQuery implements IQuery {
 	}
 
     public String getMdx() {
-        final Writer writer = new StringWriter();
-        this.query.getSelect().unparse(new ParseTreeWriter(new PrintWriter(writer)));
-        return writer.toString();
+        if (mdx == null || mdxVersion != version) {
+            final Writer writer = new StringWriter();
+            this.query.getSelect().unparse(new ParseTreeWriter(new PrintWriter(writer)));
+            mdx = writer.toString();
+            mdxVersion = version;
+        }
+        return mdx;
     }
     
     public SaikuCube getSaikuCube() {
@@ -191,6 +206,7 @@ public class OlapQuery implements IQuery {
     		Selection sel = dimension.createSelection(IdentifierParser.parseIdentifier("[Scenario].[" + getScenario().getId() + "]"));
     		if (!dimension.getInclusions().contains(sel)) {
     			dimension.getInclusions().add(sel);
+    			invalidate();
     		}
     	}
     	
@@ -222,6 +238,7 @@ public class OlapQuery implements IQuery {
     }
     
 	public void resetAxisSelections(QueryAxis axis) {
+		invalidate();
 		for (QueryDimension dim : axis.getDimensions()) {
 			dim.clearInclusions();
 			dim.clearExclusions();
@@ -250,6 +267,7 @@ public class OlapQuery implements IQuery {
 	}
     
     public void setProperties(Properties props) {
+    	invalidate();
     	this.properties = props;
     	for (Object _key : props.keySet()) {
     		String key = (String) _key;
@@ -282,6 +300,9 @@ public class OlapQuery implements IQuery {
 	}
 	
 	public void setScenario(Scenario scenario) {
+		if (this.scenario != scenario) {
+			invalidate();
+		}
 		this.scenario = scenario;
 	}
 	
@@ -291,6 +312,7 @@ public class OlapQuery implements IQuery {
 
 	public void setTag(SaikuTag tag) {
 		this.tag = tag;
+		invalidate();
 	}
 
 	public SaikuTag getTag() {
@@ -298,7 +320,10 @@ public class OlapQuery implements IQuery {
 	}
 
 	public void removeTag() {
-		tag = null;		
+		if (tag != null) {
+			invalidate();
+		}
+		tag = null;
 	}
 
 	public void storeCellset(CellSet cs) {
@@ -327,4 +352,74 @@ public class OlapQuery implements IQuery {
 		this.statement = null;
 	}
 
+	public IQuery copy() throws SaikuOlapException {
+		try {
+			Query copy = new Query(query.getName(), query.getCube());
+			for (Axis axis : new Axis[] { Axis.ROWS, Axis.COLUMNS, Axis.FILTER, Axis.PAGES }) {
+				QueryAxis source = query.getAxis(axis);
+				QueryAxis target = copy.getAxis(axis);
+				if (source == null || target == null) {
+					continue;
+				}
+				target.setNonEmpty(source.isNonEmpty());
+				if (source.getSortOrder() != null) {
+					if (StringUtils.isNotBlank(source.getSortIdentifierNodeName())) {
+						target.sort(source.getSortOrder(), source.getSortIdentifierNodeName());
+					} else {
+						target.sort(source.getSortOrder());
+					}
+				}
+				for (QueryDimension dim : source.getDimensions()) {
+					QueryDimension copyDim = copy.getDimension(dim.getName());
+					if (dim.getSortOrder() != null) {
+						copyDim.sort(dim.getSortOrder());
+					}
+					if (dim.getHierarchizeMode() != null) {
+						copyDim.setHierarchizeMode(dim.getHierarchizeMode());
+					}
+					copyDim.setHierarchyConsistent(dim.isHierarchyConsistent());
+					target.getDimensions().add(copyDim);
+					for (Selection sel : dim.getInclusions()) {
+						copyDim.getInclusions().add(copySelection(copy, sel));
+					}
+					for (Selection sel : dim.getExclusions()) {
+						copyDim.getExclusions().add(copySelection(copy, sel));
+					}
+				}
+			}
+			OlapQuery copyQuery = new OlapQuery(copy, connection, cube, false);
+			copyQuery.properties = (Properties) this.properties.clone();
+			return copyQuery;
+		} catch (Exception e) {
+			throw new SaikuOlapException("Cannot copy query (" + query.getName() + ")", e);
+		}
+	}
+
+	/**
+	 * Creates the selection in the copied query, reusing the already resolved metadata elements.
+	 */
+	private Selection copySelection(Query copy, Selection sel) {
+		QueryDimension dim = copy.getDimension(sel.getDimension().getName());
+		Selection copySel;
+		if (sel.getRootElement() instanceof Level) {
+			copySel = dim.createSelection((Level) sel.getRootElement());
+		} else {
+			copySel = dim.createSelection(sel.getOperator(), (Member) sel.getRootElement());
+		}
+		if (sel.getSelectionContext() != null) {
+			for (Selection context : sel.getSelectionContext()) {
+				copySel.addContext(copySelection(copy, context));
+			}
+		}
+		return copySel;
+	}
+
+	public int getVersion() {
+		return version;
+	}
+
+	public void invalidate() {
+		version++;
+	}
+
 }
@@ -19,8 +19,7 @@
  */
 package org.saiku.olap.query;
 
-import java.io.ByteArrayInputStream;
-import java.nio.charset.CharsetEncoder;
+import java.io.StringReader;
 import java.sql.SQLException;
 
 import org.apache.commons.lang.StringUtils;
@@ -45,7 +44,6 @@ import org.olap4j.query.Selection;
 import org.olap4j.query.SortOrder;
 import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.util.exception.QueryParseException;
-import org.xml.sax.InputSource;
 
 
 
@@ -64,18 +62,41 @@ public class QueryDeserializer {
     private static final String CATALOG = "catalog";
     private static final String SCHEMA = "schema";
     private static final String SELECTION = "Selection";
-    private static Document dom;
-    private static Query qm;
-    private static String xml;
-    private static OlapConnection connection;
-    private static InputSource source;
+
+    /**
+     * SAXBuilder is not thread-safe, so every thread keeps its own builder which reuses its parser.
+     */
+    private static final ThreadLocal<SAXBuilder> builders = new ThreadLocal<SAXBuilder>() {
+        @Override
+        protected SAXBuilder initialValue() {
+            SAXBuilder builder = new SAXBuilder();
+            builder.setReuseParser(true);
+            return builder;
+        }
+    };
+
+    private final Document dom;
+    private final OlapConnection connection;
+    private Query qm;
+
+    private QueryDeserializer(String xml, OlapConnection connection) throws Exception {
+        this.connection = connection;
+        this.dom = builders.get().build(new StringReader(xml));
+    }
 
     public static IQuery unparse(String xml, OlapConnection connection) throws Exception {
-        QueryDeserializer.connection = connection;
-        QueryDeserializer.xml = xml;
-        SAXBuilder parser = new SAXBuilder();
-        source = new InputSource((new ByteArrayInputStream(QueryDeserializer.xml.getBytes("UTF8"))));
-        dom = parser.build(source);
+        return new QueryDeserializer(xml, connection).unparse();
+    }
+
+    public static SaikuCube getFakeCube(String xml) throws Exception {
+        return new QueryDeserializer(xml, null).getFakeCube();
+    }
+
+    public static SaikuCube getCube(String xml, OlapConnection con) throws Exception {
+        return new QueryDeserializer(xml, con).getCube();
+    }
+
+    private IQuery unparse() throws Exception {
         Element child =(Element) dom.getRootElement();
         Element qmElement = child.getChild("QueryModel");
         Element mdxElement = child.getChild("MDX");
@@ -92,12 +113,7 @@ public class QueryDeserializer {
         throw new Exception("Cant find <QueryModel> nor <MDX> Query");
     }
     
-    public static SaikuCube getFakeCube(String xml) throws Exception {
-        QueryDeserializer.xml = xml;
-        SAXBuilder parser = new SAXBuilder();
-        source = new InputSource((new ByteArrayInputStream(QueryDeserializer.xml.getBytes())));
-        dom = parser.build(source);
-
+    private SaikuCube getFakeCube() throws Exception {
         Element queryElement = dom.getRootElement();
         if (queryElement != null && queryElement.getName().equals(QUERY)) {
 
@@ -111,13 +127,7 @@ public class QueryDeserializer {
         throw new Exception("Cant find <QueryModel> nor <MDX> Query");
     }
     
-    public static SaikuCube getCube(String xml, OlapConnection con) throws Exception {
-    	connection = con;
-        QueryDeserializer.xml = xml;
-        SAXBuilder parser = new SAXBuilder();
-        source = new InputSource((new ByteArrayInputStream(QueryDeserializer.xml.getBytes())));
-        dom = parser.build(source);
-
+    private SaikuCube getCube() throws Exception {
         Element queryElement = dom.getRootElement();
         if (queryElement != null && queryElement.getName().equals(QUERY)) {
 
@@ -136,7 +146,7 @@ public class QueryDeserializer {
         throw new Exception("Cant find <QueryModel> nor <MDX> Query");
     }
 
-    private static IQuery createQmQuery() throws QueryParseException, SQLException {
+    private IQuery createQmQuery() throws QueryParseException, SQLException {
 
         Element queryElement = dom.getRootElement();
         if (queryElement != null && queryElement.getName().equals(QUERY)) {
@@ -173,7 +183,7 @@ public class QueryDeserializer {
         }
     }
     
-    private static IQuery createMdxQuery() throws QueryParseException, SQLException {
+    private IQuery createMdxQuery() throws QueryParseException, SQLException {
 
         Element queryElement = dom.getRootElement();
         if (queryElement != null && queryElement.getName().equals(QUERY)) {
@@ -205,13 +215,13 @@ public class QueryDeserializer {
         }
     }
 
-    private static void manipulateQuery(Element qmElement) throws OlapException {
+    private void manipulateQuery(Element qmElement) throws OlapException {
         moveDims2Axis(qmElement);
 
 
     }
 
-    private static void moveDims2Axis(Element qmElement) throws OlapException {
+    private void moveDims2Axis(Element qmElement) throws OlapException {
         Element axesElement = qmElement.getChild("Axes");
         if (axesElement != null) {
 
@@ -255,7 +265,7 @@ public class QueryDeserializer {
 
     }
 
-    private static void processDimension(Element dimension, String location) throws OlapException {
+    private void processDimension(Element dimension, String location) throws OlapException {
 
         String dimName = dimension.getAttributeValue("name");
         if (StringUtils.isNotBlank(dimName)) {
@@ -331,7 +341,7 @@ public class QueryDeserializer {
             }
             
             Element exclusions = dimension.getChild("Exclusions");
-            if (inclusions != null) {
+            if (exclusions != null) {
                 for(int z = 0; z < exclusions.getChildren(SELECTION).size(); z++) {
                     Element selectionElement = (Element) exclusions.getChildren(SELECTION).get(z);
                     String name = selectionElement.getAttributeValue("node");
@@ -348,7 +358,7 @@ public class QueryDeserializer {
 
     }
 
-    private static Query createEmptyQuery(String queryName, String catalogName, String schemaName, String cubeName) throws SQLException {
+    private Query createEmptyQuery(String queryName, String catalogName, String schemaName, String cubeName) throws SQLException {
         if (!StringUtils.isNotBlank(catalogName)) {
             try {
                 connection.setCatalog(catalogName);
@@ -20,15 +20,14 @@
 package org.saiku.olap.query;
 
 import java.io.StringWriter;
+import java.io.Writer;
 import java.util.List;
 
-import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
 
 import org.apache.commons.lang.StringUtils;
-import org.jdom.Document;
-import org.jdom.Element;
-import org.jdom.output.Format;
-import org.jdom.output.XMLOutputter;
 import org.olap4j.Axis;
 import org.olap4j.metadata.Level;
 import org.olap4j.metadata.Member;
@@ -38,11 +37,20 @@ import org.olap4j.query.Selection;
 import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.util.exception.QueryParseException;
 
+/**
+ * Writes a query in the .saiku XML format straight to a {@link Writer} without building a document first.
+ */
 public class QuerySerializer {
-    
+
+    private static final String INDENT = "  ";
+    private static final String NEWLINE = "\n";
+
+    private static final XMLOutputFactory factory = XMLOutputFactory.newInstance();
+
     private IQuery query;
-    Document dom;
 	private SaikuCube saikuCube;
+	private XMLStreamWriter xml;
+	private int depth;
     
     public QuerySerializer(IQuery query) {
         this.query = query;
@@ -50,206 +58,213 @@ public class QuerySerializer {
     }
     
     public String createXML() throws QueryParseException{
+        StringWriter st = new StringWriter();
+        createXML(st);
+        return st.getBuffer().toString();
+    }
+
+    public void createXML(Writer writer) throws QueryParseException {
         if (this.query == null)
             throw new QueryParseException("Query object can not be null");
-        
-        try {
-            createDocument();
-            createDOMTree();
-            
-            XMLOutputter serializer = new XMLOutputter();
-            Format format = Format.getPrettyFormat();
-            StringWriter st = new StringWriter();
-            serializer.setFormat(format);
-            serializer.output(dom, st);
 
-            return st.getBuffer().toString();
-            
+        try {
+            xml = factory.createXMLStreamWriter(writer);
+            depth = 0;
+            xml.writeStartDocument("UTF-8", "1.0");
+            writeQuery();
+            xml.writeEndDocument();
+            xml.flush();
         } catch (Exception e) {
             throw new QueryParseException(e.getMessage(),e);
+        } finally {
+            if (xml != null) {
+                try {
+                    xml.close();
+                } catch (XMLStreamException e) {
+                    // the underlying writer stays open and the caller owns it
+                }
+                xml = null;
+            }
         }
-        
     }
-    
-    private void createDocument() throws ParserConfigurationException {
-        dom = new Document();
-    }
-    
-    private void createDOMTree(){
 
-        Element rootEle = new Element("Query");
+    private void writeQuery() throws XMLStreamException {
+        startElement("Query", false);
         
         if (StringUtils.isNotBlank(query.getName())) {
-            rootEle.setAttribute("name", query.getName());
+            xml.writeAttribute("name", query.getName());
         }
         
         if (StringUtils.isNotBlank(query.getType().toString())) {
-            rootEle.setAttribute("type", query.getType().toString());
+            xml.writeAttribute("type", query.getType().toString());
         }
 
         String cubeName = query.getCube().getUniqueName();
 
         if (StringUtils.isNotBlank(saikuCube.getConnectionName())) {
-            rootEle.setAttribute("connection", saikuCube.getConnectionName());
+            xml.writeAttribute("connection", saikuCube.getConnectionName());
         }
 
         if (StringUtils.isNotBlank(cubeName)) {
-            rootEle.setAttribute("cube", cubeName);
+            xml.writeAttribute("cube", cubeName);
         }
         
         if (StringUtils.isNotBlank(saikuCube.getCatalogName())) {
-            rootEle.setAttribute("catalog", saikuCube.getCatalogName());
+            xml.writeAttribute("catalog", saikuCube.getCatalogName());
         }
         
         if (StringUtils.isNotBlank(saikuCube.getSchemaName())) {
-            rootEle.setAttribute("schema", saikuCube.getSchemaName());
+            xml.writeAttribute("schema", saikuCube.getSchemaName());
         }
         if (IQuery.QueryType.QM.equals(query.getType())) {
-        	rootEle = appendQmQuery(rootEle);
+        	writeQmQuery();
         }
-        rootEle = appendMdxQuery(rootEle);
+        writeMdxQuery();
         
-        dom.setRootElement(rootEle);
-
+        endElement();
     }
     
-    private Element appendQmQuery(Element rootElement) {
-        
-        if (this.query != null) {
-            Element qm = new Element("QueryModel");
-            
-            qm = appendAxes(qm);
-            rootElement.addContent(qm);
-        }
-        return rootElement;
+    private void writeQmQuery() throws XMLStreamException {
+        startElement("QueryModel", false);
+        writeAxes();
+        endElement();
     }
 
-    private Element appendMdxQuery(Element rootElement) {
-        Element mdx = new Element("MDX");
-        if (StringUtils.isNotBlank(this.query.getMdx())) {
-            mdx.setText(this.query.getMdx());
-
+    private void writeMdxQuery() throws XMLStreamException {
+        String mdx = this.query.getMdx();
+        if (StringUtils.isNotBlank(mdx)) {
+            newLine();
+            xml.writeStartElement("MDX");
+            xml.writeCharacters(mdx);
+            xml.writeEndElement();
+        } else {
+            startElement("MDX", true);
         }
-        rootElement.addContent(mdx);
-        
-        return rootElement;
     }
     
-    private Element appendAxes(Element rootElement) {
-        
-        Element axes = new Element("Axes");
+    private void writeAxes() throws XMLStreamException {
+        startElement("Axes", false);
         
         QueryAxis rows =  ((OlapQuery)query).getAxes().get(Axis.ROWS);
         if (rows != null) {
-            Element rowsElement = createAxisElement(rows);
-            axes.addContent(rowsElement);
+            writeAxis(rows);
         }
         
         QueryAxis columns =  ((OlapQuery)query).getAxes().get(Axis.COLUMNS);
         if (columns != null) {
-            Element columnsElement = createAxisElement(columns);
-            axes.addContent(columnsElement);
+            writeAxis(columns);
         }
         
         QueryAxis filters =  ((OlapQuery)query).getAxes().get(Axis.FILTER);
         if (filters != null) {
-            Element filtersElement = createAxisElement(filters);
-            axes.addContent(filtersElement);
+            writeAxis(filters);
         }
         
         QueryAxis pages =  ((OlapQuery)query).getAxes().get(Axis.PAGES);
         if (pages != null) {
-            Element pagesElement = createAxisElement(pages);
-            axes.addContent(pagesElement);
+            writeAxis(pages);
         }
         
-        rootElement.addContent(axes);
-        return rootElement;
-        
-        
+        endElement();
     }
     
-    private Element createAxisElement(QueryAxis axis) {
-        Element axisElement = new Element("Axis");
-        axisElement.setAttribute("location",getAxisName(axis));
-        
-//        if (axis.isNonEmpty() == true) {
-            axisElement.setAttribute("nonEmpty", "" + axis.isNonEmpty());
-//        }
-        
+    private void writeAxis(QueryAxis axis) throws XMLStreamException {
+        boolean empty = axis.getDimensions().size() == 0;
+        startElement("Axis", empty);
+        xml.writeAttribute("location",getAxisName(axis));
+        xml.writeAttribute("nonEmpty", "" + axis.isNonEmpty());
         
         if (axis.getSortOrder() != null) {
-            axisElement.setAttribute("sortOrder", axis.getSortOrder().toString());
+            xml.writeAttribute("sortOrder", axis.getSortOrder().toString());
         }
         
         if (StringUtils.isNotBlank(axis.getSortIdentifierNodeName())) {
-            axisElement.setAttribute("sortEvaluationLiteral", axis.getSortIdentifierNodeName());
+            xml.writeAttribute("sortEvaluationLiteral", axis.getSortIdentifierNodeName());
         }
         
-        Element dimensions = new Element("Dimensions");
-        
-        
-        for (QueryDimension dim : axis.getDimensions()) {
-            Element d = createDimensionElement(dim);
-            dimensions.addContent(d);
-        }
-        if (axis.getDimensions().size() > 0) {
-            axisElement.addContent(dimensions);
+        if (!empty) {
+            startElement("Dimensions", false);
+            for (QueryDimension dim : axis.getDimensions()) {
+                writeDimension(dim);
+            }
+            endElement();
+            endElement();
         }
-        
-        return axisElement;
     }
     
-    private Element createDimensionElement(QueryDimension dim) {
-        Element dimension = new Element("Dimension");
-        dimension.setAttribute("name", dim.getDimension().getName());
+    private void writeDimension(QueryDimension dim) throws XMLStreamException {
+        startElement("Dimension", false);
+        xml.writeAttribute("name", dim.getDimension().getName());
         if (dim.getSortOrder() != null) {
-            dimension.setAttribute("sortOrder", dim.getSortOrder().toString());
+            xml.writeAttribute("sortOrder", dim.getSortOrder().toString());
         }
         if (dim.getHierarchizeMode() != null) {
-            dimension.setAttribute("hierarchizeMode", dim.getHierarchizeMode().toString());
+            xml.writeAttribute("hierarchizeMode", dim.getHierarchizeMode().toString());
+            xml.writeAttribute("hierarchyConsistent", "" + dim.isHierarchyConsistent());
         }
         
-        if (dim.getHierarchizeMode() != null) {
-            dimension.setAttribute("hierarchyConsistent", "" + dim.isHierarchyConsistent());
-        }
+        writeSelections("Inclusions", dim.getInclusions());
+        writeSelections("Exclusions", dim.getExclusions());
         
-        Element inclusionsElement = new Element("Inclusions");
-        List<Selection> inclusions = dim.getInclusions();
-        
-        inclusionsElement = createSelectionsElement(inclusionsElement, inclusions);
-        dimension.addContent(inclusionsElement);
-        
-        Element exclusionsElement = new Element("Exclusions");
-        List<Selection> exclusions = dim.getExclusions();
-        
-        inclusionsElement = createSelectionsElement(exclusionsElement, exclusions);
-        dimension.addContent(inclusionsElement);
-        
-        return dimension;
+        endElement();
     }
     
-    private Element createSelectionsElement(Element rootElement, List<Selection> selections) {
-        for (Selection sel : selections) {
-            Element selection = new Element("Selection");
-            if (sel.getDimension() != null)
-                selection.setAttribute("dimension", sel.getDimension().getName());
-            if ((sel.getRootElement() instanceof Level)) {
-            	selection.setAttribute("type", "level");
-            } else if ((sel.getRootElement() instanceof Member)) {
-            	selection.setAttribute("type", "member");
-            }
-            selection.setAttribute("node", sel.getUniqueName());
-            selection.setAttribute("operator", sel.getOperator().toString());
-            
-            if (sel.getSelectionContext() != null && sel.getSelectionContext().size() > 0) {
-                Element context = new Element("Context");
-                context = createSelectionsElement(context, sel.getSelectionContext());
-                selection.addContent(context);
+    private void writeSelections(String elementName, List<Selection> selections) throws XMLStreamException {
+        boolean empty = selections == null || selections.size() == 0;
+        startElement(elementName, empty);
+        if (!empty) {
+            for (Selection sel : selections) {
+                writeSelection(sel);
             }
-            rootElement.addContent(selection);
+            endElement();
+        }
+    }
+
+    private void writeSelection(Selection sel) throws XMLStreamException {
+        List<Selection> context = sel.getSelectionContext();
+        boolean empty = context == null || context.size() == 0;
+        startElement("Selection", empty);
+        if (sel.getDimension() != null)
+            xml.writeAttribute("dimension", sel.getDimension().getName());
+        if ((sel.getRootElement() instanceof Level)) {
+            xml.writeAttribute("type", "level");
+        } else if ((sel.getRootElement() instanceof Member)) {
+            xml.writeAttribute("type", "member");
+        }
+        xml.writeAttribute("node", sel.getUniqueName());
+        xml.writeAttribute("operator", sel.getOperator().toString());
+
+        if (!empty) {
+            writeSelections("Context", context);
+            endElement();
+        }
+    }
+
+    /**
+     * Starts an element on a new, indented line. Empty elements are closed right away, all others
+     * need a matching {@link #endElement()}.
+     */
+    private void startElement(String name, boolean empty) throws XMLStreamException {
+        newLine();
+        if (empty) {
+            xml.writeEmptyElement(name);
+        } else {
+            xml.writeStartElement(name);
+            depth++;
+        }
+    }
+
+    private void endElement() throws XMLStreamException {
+        depth--;
+        newLine();
+        xml.writeEndElement();
+    }
+
+    private void newLine() throws XMLStreamException {
+        xml.writeCharacters(NEWLINE);
+        for (int i = 0; i < depth; i++) {
+            xml.writeCharacters(INDENT);
         }
-        return rootElement;
     }
 
     public String getAxisName(QueryAxis axis) {
@@ -0,0 +1,234 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.lang.StringUtils;
+import org.olap4j.query.SortOrder;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.DataCell;
+import org.saiku.olap.dto.resultset.MemberCell;
+
+/**
+ * Sorts and limits the rows of an already formatted result in memory, without querying the server again.
+ * <p>
+ * The sort order follows MDX ORDER: ASC and DESC keep the hierarchy, i.e. rows are only sorted within
+ * the members of the outer header columns, BASC and BDESC sort all rows. Empty values are always sorted last.
+ */
+public class CellDataSetSorter {
+
+	private CellDataSetSorter() {
+	}
+
+	/**
+	 * Returns a copy of the result with its rows sorted by a column and limited to a number of rows.
+	 * 
+	 * @param data the formatted result
+	 * @param column the column of the result to sort by, either a data column or a row header column.
+	 * 			A negative value keeps the current order.
+	 * @param order the sort order, DESC if null
+	 * @param limit the number of rows to keep, per group of outer members if the hierarchy is kept. 0 or less keeps all rows.
+	 */
+	public static CellDataSet sort(CellDataSet data, int column, SortOrder order, int limit) {
+		AbstractBaseCell[][] body = data.getCellSetBody();
+		int rows = body.length;
+		int[] index = new int[rows];
+		for (int i = 0; i < rows; i++) {
+			index[i] = i;
+		}
+		int[] groups = new int[rows];
+
+		if (column >= 0 && rows > 0) {
+			if (column >= body[0].length) {
+				throw new IllegalArgumentException("Cannot sort by column " + column + ", the result has only " 
+						+ body[0].length + " columns");
+			}
+			if (order == null) {
+				order = SortOrder.DESC;
+			}
+			boolean descending = SortOrder.DESC.equals(order) || SortOrder.BDESC.equals(order);
+			boolean keepHierarchy = SortOrder.ASC.equals(order) || SortOrder.DESC.equals(order);
+			int headerWidth = getHeaderWidth(body);
+			body = fillHeaders(body, headerWidth);
+
+			if (keepHierarchy) {
+				int groupColumns = column < headerWidth ? column : headerWidth - 1;
+				groups = computeGroups(body, groupColumns);
+			}
+			if (column < headerWidth) {
+				String[] keys = new String[rows];
+				for (int i = 0; i < rows; i++) {
+					keys[i] = body[i][column] == null ? null : body[i][column].getFormattedValue();
+				}
+				mergeSort(index, new int[rows], 0, rows, groups, null, keys, descending);
+			} else {
+				double[] keys = new double[rows];
+				for (int i = 0; i < rows; i++) {
+					AbstractBaseCell cell = body[i][column];
+					Number value = cell instanceof DataCell ? ((DataCell) cell).getRawNumber() : null;
+					keys[i] = value == null ? Double.NaN : value.doubleValue();
+				}
+				mergeSort(index, new int[rows], 0, rows, groups, keys, null, descending);
+			}
+		}
+
+		int kept = 0;
+		int[] keep = new int[rows];
+		int lastGroup = -1;
+		int inGroup = 0;
+		for (int i = 0; i < rows; i++) {
+			int row = index[i];
+			if (groups[row] != lastGroup) {
+				lastGroup = groups[row];
+				inGroup = 0;
+			}
+			if (limit <= 0 || inGroup < limit) {
+				keep[kept++] = row;
+			}
+			inGroup++;
+		}
+
+		AbstractBaseCell[][] sorted = new AbstractBaseCell[kept][];
+		for (int i = 0; i < kept; i++) {
+			sorted[i] = body[keep[i]];
+		}
+		CellDataSet result = new CellDataSet(data.getWidth(), data.getOffset() + kept);
+		result.setCellSetHeaders(data.getCellSetHeaders());
+		result.setCellSetBody(sorted);
+		result.setOffset(data.getOffset());
+		return result;
+	}
+
+	/**
+	 * Number of leading row header columns.
+	 */
+	private static int getHeaderWidth(AbstractBaseCell[][] body) {
+		int width = 0;
+		while (width < body[0].length && !(body[0][width] instanceof DataCell)) {
+			width++;
+		}
+		return width;
+	}
+
+	/**
+	 * Formatters leave a row header cell empty if it repeats the member of the row above. Once rows are
+	 * reordered that no longer holds, so the empty cells are replaced by the cell above.
+	 */
+	private static AbstractBaseCell[][] fillHeaders(AbstractBaseCell[][] body, int headerWidth) {
+		AbstractBaseCell[][] filled = new AbstractBaseCell[body.length][];
+		for (int y = 0; y < body.length; y++) {
+			filled[y] = body[y].clone();
+			if (y > 0) {
+				for (int x = 0; x < headerWidth; x++) {
+					AbstractBaseCell cell = filled[y][x];
+					if (cell == null || (cell instanceof MemberCell && cell.getRawValue() == null)) {
+						filled[y][x] = filled[y - 1][x];
+					}
+				}
+			}
+		}
+		return filled;
+	}
+
+	/**
+	 * Numbers the rows by the members of the first <code>columns</code> header columns, in order of appearance.
+	 */
+	private static int[] computeGroups(AbstractBaseCell[][] body, int columns) {
+		int[] groups = new int[body.length];
+		if (columns <= 0) {
+			return groups;
+		}
+		Map<String, Integer> ids = new HashMap<String, Integer>();
+		StringBuilder key = new StringBuilder();
+		for (int y = 0; y < body.length; y++) {
+			key.setLength(0);
+			for (int x = 0; x < columns; x++) {
+				AbstractBaseCell cell = body[y][x];
+				String name = null;
+				if (cell instanceof MemberCell) {
+					name = ((MemberCell) cell).getUniqueName();
+				}
+				if (StringUtils.isBlank(name) && cell != null) {
+					name = cell.getRawValue();
+				}
+				key.append(name).append('\u0000');
+			}
+			Integer id = ids.get(key.toString());
+			if (id == null) {
+				id = ids.size();
+				ids.put(key.toString(), id);
+			}
+			groups[y] = id;
+		}
+		return groups;
+	}
+
+	/**
+	 * Stable merge sort of the row indexes in <code>index[from, to)</code>, by group first and then by
+	 * either the numeric or the text keys.
+	 */
+	private static void mergeSort(int[] index, int[] buffer, int from, int to, int[] groups, double[] numbers, 
+			String[] texts, boolean descending) {
+		if (to - from < 2) {
+			return;
+		}
+		int middle = (from + to) >>> 1;
+		mergeSort(index, buffer, from, middle, groups, numbers, texts, descending);
+		mergeSort(index, buffer, middle, to, groups, numbers, texts, descending);
+		if (compare(index[middle - 1], index[middle], groups, numbers, texts, descending) <= 0) {
+			return;
+		}
+		System.arraycopy(index, from, buffer, from, to - from);
+		int left = from;
+		int right = middle;
+		for (int i = from; i < to; i++) {
+			if (right >= to || (left < middle && compare(buffer[left], buffer[right], groups, numbers, texts, descending) <= 0)) {
+				index[i] = buffer[left++];
+			} else {
+				index[i] = buffer[right++];
+			}
+		}
+	}
+
+	private static int compare(int a, int b, int[] groups, double[] numbers, String[] texts, boolean descending) {
+		if (groups[a] != groups[b]) {
+			return groups[a] < groups[b] ? -1 : 1;
+		}
+		if (numbers != null) {
+			double x = numbers[a];
+			double y = numbers[b];
+			if (Double.isNaN(x) || Double.isNaN(y)) {
+				return Double.isNaN(x) ? (Double.isNaN(y) ? 0 : 1) : -1;
+			}
+			int c = Double.compare(x, y);
+			return descending ? -c : c;
+		}
+		String x = texts[a];
+		String y = texts[b];
+		if (StringUtils.isEmpty(x) || StringUtils.isEmpty(y)) {
+			return StringUtils.isEmpty(x) ? (StringUtils.isEmpty(y) ? 0 : 1) : -1;
+		}
+		int c = x.compareToIgnoreCase(y);
+		return descending ? -c : c;
+	}
+}
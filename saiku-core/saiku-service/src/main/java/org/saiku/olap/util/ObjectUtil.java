@@ -32,6 +32,7 @@ import org.olap4j.query.QueryAxis;
 import org.olap4j.query.QueryDimension;
 import org.olap4j.query.Selection;
 import org.saiku.olap.dto.SaikuAxis;
+import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.dto.SaikuDimension;
 import org.saiku.olap.dto.SaikuDimensionSelection;
 import org.saiku.olap.dto.SaikuHierarchy;
@@ -46,7 +47,15 @@ public class ObjectUtil {
 
 
 	public static SaikuDimension convert(Dimension dim) {
-		SaikuDimension sDim = new SaikuDimension(dim.getName(), dim.getUniqueName(), dim.getCaption(), dim.getDescription(), convertHierarchies(dim.getHierarchies()));
+		return convert(dim, false, false);
+	}
+
+	/**
+	 * Converts the dimension and its hierarchies. Levels and root members of the hierarchies are only
+	 * converted if requested, otherwise they are null. Loading root members may hit the database.
+	 */
+	public static SaikuDimension convert(Dimension dim, boolean levels, boolean rootMembers) {
+		SaikuDimension sDim = new SaikuDimension(dim.getName(), dim.getUniqueName(), dim.getCaption(), dim.getDescription(), convertHierarchies(dim.getHierarchies(), levels, rootMembers));
 		return sDim;
 	}
 
@@ -63,25 +72,39 @@ public class ObjectUtil {
 	}
 	
 	public static List<SaikuDimension> convertDimensions(List<Dimension> dims) {
+		return convertDimensions(dims, false, false);
+	}
+
+	public static List<SaikuDimension> convertDimensions(List<Dimension> dims, boolean levels, boolean rootMembers) {
 		List<SaikuDimension> dimList = new ArrayList<SaikuDimension>();
 		for (Dimension d : dims) {
-			dimList.add(convert(d));
+			dimList.add(convert(d, levels, rootMembers));
 		}
 		return dimList;
 	}
 
 	public static List<SaikuHierarchy> convertHierarchies(List<Hierarchy> hierarchies) {
+		return convertHierarchies(hierarchies, false, false);
+	}
+
+	public static List<SaikuHierarchy> convertHierarchies(List<Hierarchy> hierarchies, boolean levels, boolean rootMembers) {
 		List<SaikuHierarchy> hierarchyList= new ArrayList<SaikuHierarchy>();
 		for (Hierarchy h : hierarchies) {
-			hierarchyList.add(convert(h));
+			hierarchyList.add(convert(h, levels, rootMembers));
 		}
 		return hierarchyList;
 
 	}
 
 	public static SaikuHierarchy convert(Hierarchy hierarchy) {
+		return convert(hierarchy, false, false);
+	}
+
+	public static SaikuHierarchy convert(Hierarchy hierarchy, boolean levels, boolean rootMembers) {
 		try {
-			return new SaikuHierarchy(hierarchy.getName(), hierarchy.getUniqueName(), hierarchy.getCaption(), hierarchy.getDimension().getUniqueName(), convertLevels(hierarchy.getLevels()), convertMembers(hierarchy.getRootMembers()));
+			return new SaikuHierarchy(hierarchy.getName(), hierarchy.getUniqueName(), hierarchy.getCaption(), hierarchy.getDimension().getUniqueName(), 
+					levels ? convertLevels(hierarchy.getLevels()) : null, 
+					rootMembers ? convertMembers(hierarchy.getRootMembers()) : null);
 		} catch (OlapException e) {
 			throw new RuntimeException("Cannot get root members",e);
 		}
@@ -120,6 +143,17 @@ public class ObjectUtil {
 		return memberList;
 
 	}
+
+	/**
+	 * Converts the members of a cube through the {@link SaikuMemberCache}.
+	 */
+	public static List<SaikuMember> convertMembers(SaikuCube cube, List<Member> members) {
+		List<SaikuMember> memberList= new ArrayList<SaikuMember>();
+		for (Member l : members) {
+			memberList.add(convert(cube, l));
+		}
+		return memberList;
+	}
 	
 	public static List<SaikuSelection> convertSelections(List<Selection> selections) {
 		List<SaikuSelection> selectionList= new ArrayList<SaikuSelection>();
@@ -165,6 +199,10 @@ public class ObjectUtil {
 				m.getLevel().getUniqueName());
 	}
 	
+	public static SaikuMember convert(SaikuCube cube, Member m) {
+		return SaikuMemberCache.getInstance().convert(cube, m);
+	}
+
 	public static SaikuDimensionSelection convertDimensionSelection(QueryDimension dim) {
 		List<SaikuSelection> selections = ObjectUtil.convertSelections(dim.getInclusions());
 		return new SaikuDimensionSelection(
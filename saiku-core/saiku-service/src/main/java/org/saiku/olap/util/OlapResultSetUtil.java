@@ -19,10 +19,20 @@
  */
 package org.saiku.olap.util;
 
+import java.text.DecimalFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.olap4j.Cell;
 import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+import org.olap4j.metadata.Member;
 import org.saiku.olap.dto.resultset.AbstractBaseCell;
 import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.DataCell;
 import org.saiku.olap.dto.resultset.Matrix;
+import org.saiku.olap.dto.resultset.MemberCell;
 import org.saiku.olap.util.formatter.HierarchicalCellSetFormatter;
 import org.saiku.olap.util.formatter.ICellSetFormatter;
 
@@ -65,4 +75,173 @@ public class OlapResultSetUtil {
 
     }
 
+    /**
+     * Returns the number of cells the cellset will produce, computed from the
+     * position counts of its axes only, so nothing is formatted or fetched.
+     */
+    public static long getCellCount(final CellSet cellSet) {
+        if (cellSet == null) {
+            return 0;
+        }
+        long cells = 1;
+        for (CellSetAxis axis : cellSet.getAxes()) {
+            cells *= axis.getPositions().size();
+        }
+        return cells;
+    }
+
+    /**
+     * Builds a flat preview of the first <code>maxRows</code> rows and <code>maxColumns</code> columns
+     * of a cellset. Used instead of the regular formatter if the result is too large to be formatted as a whole.
+     */
+    public static CellDataSet cellSet2Preview(final CellSet cellSet, final int maxRows, final int maxColumns) {
+        if (cellSet == null) {
+            return new CellDataSet(0,0);
+        }
+        final CellSetAxis columnsAxis = cellSet.getAxes().size() > 0 ? cellSet.getAxes().get(0) : null;
+        final CellSetAxis rowsAxis = cellSet.getAxes().size() > 1 ? cellSet.getAxes().get(1) : null;
+
+        final int totalColumns = columnsAxis == null ? 1 : columnsAxis.getPositions().size();
+        final int totalRows = rowsAxis == null ? 1 : rowsAxis.getPositions().size();
+        final int columns = Math.min(totalColumns, maxColumns);
+        final int rows = Math.min(totalRows, maxRows);
+        final int headerHeight = columnsAxis == null ? 0 : columnsAxis.getAxisMetaData().getHierarchies().size();
+        final int headerWidth = rowsAxis == null ? 0 : rowsAxis.getAxisMetaData().getHierarchies().size();
+
+        final AbstractBaseCell[][] headervalues = new AbstractBaseCell[headerHeight][headerWidth + columns];
+        for (int y = 0; y < headerHeight; y++) {
+            for (int x = 0; x < headerWidth; x++) {
+                final MemberCell corner = new MemberCell(false, x > 0);
+                if (y == headerHeight - 1) {
+                    String caption = rowsAxis.getAxisMetaData().getHierarchies().get(x).getCaption();
+                    corner.setRawValue(caption);
+                    corner.setFormattedValue(caption);
+                    corner.setProperty("__headertype", "row_header_header");
+                    corner.setProperty("levelindex", "" + x);
+                }
+                headervalues[y][x] = corner;
+            }
+            for (int x = 0; x < columns; x++) {
+                final Member member = columnsAxis.getPositions().get(x).getMembers().get(y);
+                headervalues[y][headerWidth + x] = createPreviewMemberCell(member);
+            }
+        }
+
+        final AbstractBaseCell[][] bodyvalues = new AbstractBaseCell[rows][headerWidth + columns];
+        final List<Integer> coordinates = new ArrayList<Integer>();
+        for (int i = 0; i < cellSet.getAxes().size(); i++) {
+            coordinates.add(0);
+        }
+        for (int y = 0; y < rows; y++) {
+            if (rowsAxis != null) {
+                final Position rowPosition = rowsAxis.getPositions().get(y);
+                for (int x = 0; x < headerWidth; x++) {
+                    bodyvalues[y][x] = createPreviewMemberCell(rowPosition.getMembers().get(x));
+                }
+                coordinates.set(1, y);
+            }
+            for (int x = 0; x < columns; x++) {
+                if (columnsAxis != null) {
+                    coordinates.set(0, x);
+                }
+                final List<Integer> cellCoordinates = new ArrayList<Integer>(coordinates);
+                bodyvalues[y][headerWidth + x] = createDataCell(cellSet.getCell(cellCoordinates), cellCoordinates);
+            }
+        }
+
+        final CellDataSet cds = new CellDataSet(headerWidth + columns, headerHeight + rows);
+        cds.setCellSetHeaders(headervalues);
+        cds.setCellSetBody(bodyvalues);
+        cds.setOffset(headerHeight);
+        cds.setTruncated(rows < totalRows || columns < totalColumns);
+        cds.setTotalRows(totalRows);
+        cds.setTotalColumns(totalColumns);
+        cds.setTotalCells(getCellCount(cellSet));
+        return cds;
+    }
+
+    /**
+     * Returns the unique names of the members of all positions, one list per axis. Two cellsets with the
+     * same signature get the same headers from a formatter, no matter which slicer they were executed with.
+     */
+    public static List<List<String>> getAxisSignature(final CellSet cellSet) {
+        final List<List<String>> signature = new ArrayList<List<String>>();
+        if (cellSet == null) {
+            return signature;
+        }
+        for (CellSetAxis axis : cellSet.getAxes()) {
+            final List<String> names = new ArrayList<String>();
+            for (Position position : axis.getPositions()) {
+                for (Member member : position.getMembers()) {
+                    names.add(member.getUniqueName());
+                }
+            }
+            signature.add(names);
+        }
+        return signature;
+    }
+
+    /**
+     * Creates a result for a cellset whose axes match the ones of a previously formatted result.
+     * Header and member cells are taken over from <code>previous</code>, only the data cells are read again.
+     */
+    public static CellDataSet refillCellSet(final CellDataSet previous, final CellSet cellSet) {
+        final CellDataSet cds = new CellDataSet(previous.getWidth(), previous.getHeight());
+        final AbstractBaseCell[][] previousHeaders = previous.getCellSetHeaders();
+        final AbstractBaseCell[][] headervalues = new AbstractBaseCell[previousHeaders.length][];
+        for (int y = 0; y < previousHeaders.length; y++) {
+            headervalues[y] = previousHeaders[y].clone();
+        }
+
+        final AbstractBaseCell[][] previousBody = previous.getCellSetBody();
+        final AbstractBaseCell[][] bodyvalues = new AbstractBaseCell[previousBody.length][];
+        for (int y = 0; y < previousBody.length; y++) {
+            bodyvalues[y] = previousBody[y].clone();
+            for (int x = 0; x < bodyvalues[y].length; x++) {
+                if (bodyvalues[y][x] instanceof DataCell) {
+                    final List<Integer> coordinates = ((DataCell) bodyvalues[y][x]).getCoordinates();
+                    bodyvalues[y][x] = createDataCell(cellSet.getCell(coordinates), coordinates);
+                }
+            }
+        }
+
+        cds.setCellSetHeaders(headervalues);
+        cds.setCellSetBody(bodyvalues);
+        cds.setOffset(previous.getOffset());
+        return cds;
+    }
+
+    private static DataCell createDataCell(final Cell cell, final List<Integer> coordinates) {
+        final DataCell cellInfo = new DataCell(true, false, coordinates);
+        cellInfo.setCoordinates(coordinates);
+        if (cell.getValue() != null) {
+            try {
+                cellInfo.setRawNumber(cell.getDoubleValue());
+            } catch (Exception e) {
+            }
+        }
+        String cellValue = cell.getFormattedValue();
+        if (cellValue == null || cellValue.equals("null")) { //$NON-NLS-1$
+            cellValue = ""; //$NON-NLS-1$
+        }
+        if (cellValue.length() < 1 && cell.getValue() != null) {
+            try {
+                cellValue = new DecimalFormat("#,###.###").format(cell.getValue()); //$NON-NLS-1$
+            } catch (Exception e) {
+            }
+        }
+        cellInfo.setFormattedValue(HierarchicalCellSetFormatter.getValueString(cellValue));
+        return cellInfo;
+    }
+
+    private static MemberCell createPreviewMemberCell(final Member member) {
+        final MemberCell memberCell = new MemberCell(false, false);
+        memberCell.setRawValue(member.getUniqueName());
+        memberCell.setFormattedValue(member.getCaption());
+        memberCell.setUniquename(member.getUniqueName());
+        memberCell.setParentDimension(member.getDimension().getName());
+        memberCell.setProperty("levelindex", "0");
+        return memberCell;
+    }
+
 }
@@ -0,0 +1,135 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.olap4j.metadata.Member;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.dto.SaikuMember;
+
+/**
+ * Per connection cache of converted members, keyed by catalog, schema, cube and member unique name.
+ * Each connection keeps at most {@link SaikuProperties#olapMemberCacheSize} members in segments that evict
+ * their least recently used members, a lookup only locks the segment of its member.
+ * Calculated members are not cached, their definition belongs to the query. The cache is flushed
+ * together with the metadata cache of the connection.
+ */
+public class SaikuMemberCache {
+
+	private static final int SEGMENTS = 16;
+
+	private static final SaikuMemberCache instance = new SaikuMemberCache(SaikuProperties.olapMemberCacheSize);
+
+	private final int maxSize;
+
+	private final ConcurrentMap<String, Segment[]> members = new ConcurrentHashMap<String, Segment[]>();
+
+	SaikuMemberCache(int maxSize) {
+		this.maxSize = maxSize;
+	}
+
+	public static SaikuMemberCache getInstance() {
+		return instance;
+	}
+
+	/**
+	 * Returns the converted member of the cube, reusing the previous conversion.
+	 */
+	public SaikuMember convert(SaikuCube cube, Member m) {
+		if (maxSize <= 0 || cube == null || cube.getConnectionName() == null || m.isCalculated()) {
+			return ObjectUtil.convert(m);
+		}
+		String key = cube.getCatalogName() + '|' + cube.getSchemaName() + '|' + cube.getName() + '|' + m.getUniqueName();
+		Segment[] segments = getSegments(cube.getConnectionName());
+		Segment segment = segments[(key.hashCode() & Integer.MAX_VALUE) % segments.length];
+		SaikuMember member;
+		synchronized (segment) {
+			member = segment.get(key);
+		}
+		if (member == null) {
+			member = ObjectUtil.convert(m);
+			synchronized (segment) {
+				segment.put(key, member);
+			}
+		}
+		return member;
+	}
+
+	private Segment[] getSegments(String connectionName) {
+		Segment[] segments = members.get(connectionName);
+		if (segments == null) {
+			int count = Math.min(SEGMENTS, maxSize);
+			Segment[] created = new Segment[count];
+			for (int i = 0; i < count; i++) {
+				// spread the remainder so the segments add up to the maximum size
+				created[i] = new Segment(maxSize / count + (i < maxSize % count ? 1 : 0));
+			}
+			segments = members.putIfAbsent(connectionName, created);
+			if (segments == null) {
+				segments = created;
+			}
+		}
+		return segments;
+	}
+
+	public void invalidate(String connectionName) {
+		if (connectionName != null) {
+			members.remove(connectionName);
+		}
+	}
+
+	public void invalidateAll() {
+		members.clear();
+	}
+
+	public int size() {
+		int size = 0;
+		for (Segment[] segments : members.values()) {
+			for (Segment segment : segments) {
+				synchronized (segment) {
+					size += segment.size();
+				}
+			}
+		}
+		return size;
+	}
+
+	private static class Segment extends LinkedHashMap<String, SaikuMember> {
+
+		private static final long serialVersionUID = 5387061358236618342L;
+
+		private final int capacity;
+
+		Segment(int capacity) {
+			super(16, 0.75f, true);
+			this.capacity = capacity;
+		}
+
+		@Override
+		protected boolean removeEldestEntry(Map.Entry<String, SaikuMember> eldest) {
+			return size() > capacity;
+		}
+	}
+
+}
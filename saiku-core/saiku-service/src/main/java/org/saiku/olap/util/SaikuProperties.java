@@ -229,6 +229,20 @@ public class SaikuProperties extends Properties{
 	public static final Boolean olapDefaultNonEmpty = getPropBoolean("saiku.olap.nonempty","false");
 	public static final String webExportExcelName = getPropString("saiku.web.export.excel.name","saiku-export");
 	public static final String webExportCsvName = getPropString("saiku.web.export.csv.name","saiku-export");
+	public static final Integer olapResultMaxCells = getPropInt("saiku.olap.result.maxcells","0");
+	public static final Integer olapResultPreviewRows = getPropInt("saiku.olap.result.preview.rows","100");
+	public static final Integer olapResultPreviewColumns = getPropInt("saiku.olap.result.preview.columns","50");
+	public static final Integer olapParallelThreads = getPropInt("saiku.olap.parallel.threads","4");
+	public static final Integer olapParallelConnectionLimit = getPropInt("saiku.olap.parallel.connection.limit","2");
+	public static final Boolean olapPrefetchEnabled = getPropBoolean("saiku.olap.prefetch.enabled","false");
+	public static final Integer olapPrefetchMembers = getPropInt("saiku.olap.prefetch.members","10");
+	public static final Integer olapDrillthroughCursorTimeout = getPropInt("saiku.olap.drillthrough.cursor.timeout","300");
+	public static final Integer olapDrillthroughCursorMax = getPropInt("saiku.olap.drillthrough.cursor.max","5");
+	public static final Integer olapDiscoverTimeout = getPropInt("saiku.olap.discover.timeout","30");
+	public static final String olapMetadataSnapshot = getPropString("saiku.olap.metadata.snapshot","");
+	public static final String olapMemberIndexHierarchies = getPropString("saiku.olap.member.index.hierarchies","");
+	public static final Integer olapMemberListLimit = getPropInt("saiku.olap.member.list.limit","0");
+	public static final Integer olapMemberCacheSize = getPropInt("saiku.olap.member.cache.size","10000");
 
 	private static Boolean getPropBoolean(String key, String defaultValue) {
 		Boolean ret;
@@ -240,6 +254,17 @@ public class SaikuProperties extends Properties{
 		return ret;
 	}
 	
+	private static Integer getPropInt(String key, String defaultValue) {
+		Integer ret;
+		try {
+			ret = Integer.parseInt(getPropString(key, defaultValue).trim());
+		} catch (NumberFormatException e) {
+			log.warn("Saiku: property " + key + " is not a number, using default " + defaultValue);
+			ret = Integer.parseInt(defaultValue);
+		}
+		return ret;
+	}
+
 	private static String getPropString(String key, String defaultValue) {
 		String ret;
 		if (instance.containsKey(key)) {
@@ -0,0 +1,243 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.olap.util;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import org.olap4j.Axis;
+import org.olap4j.Cell;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.Position;
+
+/**
+ * A view of a cellset with the COLUMNS and ROWS axes swapped, so a result can be pivoted without
+ * executing the swapped query again. Cells and axes are read from the original cellset, only the
+ * axis order and the coordinates are translated.
+ */
+public class TransposedCellSet {
+
+	private TransposedCellSet() {
+	}
+
+	/**
+	 * Returns true if the cellset has both a COLUMNS and a ROWS axis and can be transposed.
+	 */
+	public static boolean canTranspose(CellSet cellSet) {
+		return cellSet != null && cellSet.getAxes().size() >= 2;
+	}
+
+	public static CellSet transpose(CellSet cellSet) {
+		if (!canTranspose(cellSet)) {
+			throw new IllegalArgumentException("Only cellsets with columns and rows can be transposed");
+		}
+		if (Proxy.isProxyClass(cellSet.getClass()) && Proxy.getInvocationHandler(cellSet) instanceof CellSetHandler) {
+			// transposing twice gives back the original
+			return ((CellSetHandler) Proxy.getInvocationHandler(cellSet)).cellSet;
+		}
+		CellSetHandler handler = new CellSetHandler(cellSet);
+		handler.proxy = (CellSet) Proxy.newProxyInstance(CellSet.class.getClassLoader(), 
+				new Class[] { CellSet.class }, handler);
+		return handler.proxy;
+	}
+
+	private static List<Integer> swap(List<Integer> coordinates) {
+		List<Integer> swapped = new ArrayList<Integer>(coordinates);
+		if (swapped.size() > 1) {
+			Collections.swap(swapped, 0, 1);
+		}
+		return swapped;
+	}
+
+	private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+		try {
+			return method.invoke(target, args);
+		} catch (InvocationTargetException e) {
+			throw e.getCause();
+		}
+	}
+
+	private static class CellSetHandler implements InvocationHandler {
+
+		private final CellSet cellSet;
+		private CellSet proxy;
+		private List<CellSetAxis> axes;
+
+		CellSetHandler(CellSet cellSet) {
+			this.cellSet = cellSet;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("getAxes".equals(name)) {
+				return getAxes();
+			}
+			if ("getCell".equals(name)) {
+				Class<?> type = method.getParameterTypes()[0];
+				if (List.class.equals(type)) {
+					return getCell(swap((List<Integer>) args[0]));
+				}
+				if (int.class.equals(type)) {
+					return getCell(swap(ordinalToCoordinates((Integer) args[0])));
+				}
+				Position[] positions = ((Position[]) args[0]).clone();
+				if (positions.length > 1) {
+					Position first = positions[0];
+					positions[0] = positions[1];
+					positions[1] = first;
+				}
+				return new CellHandler(this, cellSet.getCell(positions)).proxy();
+			}
+			if ("ordinalToCoordinates".equals(name)) {
+				return ordinalToCoordinates((Integer) args[0]);
+			}
+			if ("coordinatesToOrdinal".equals(name)) {
+				return coordinatesToOrdinal((List<Integer>) args[0]);
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return TransposedCellSet.invoke(cellSet, method, args);
+		}
+
+		private synchronized List<CellSetAxis> getAxes() {
+			if (axes == null) {
+				List<CellSetAxis> original = cellSet.getAxes();
+				List<CellSetAxis> swapped = new ArrayList<CellSetAxis>();
+				swapped.add(new AxisHandler(this, original.get(1), Axis.COLUMNS).proxy());
+				swapped.add(new AxisHandler(this, original.get(0), Axis.ROWS).proxy());
+				for (int i = 2; i < original.size(); i++) {
+					swapped.add(new AxisHandler(this, original.get(i), original.get(i).getAxisOrdinal()).proxy());
+				}
+				axes = Collections.unmodifiableList(swapped);
+			}
+			return axes;
+		}
+
+		private Cell getCell(List<Integer> originalCoordinates) {
+			return new CellHandler(this, cellSet.getCell(originalCoordinates)).proxy();
+		}
+
+		/**
+		 * Converts an ordinal of the transposed view into its coordinates, the first axis varying fastest.
+		 */
+		private List<Integer> ordinalToCoordinates(int ordinal) {
+			List<CellSetAxis> axisList = getAxes();
+			List<Integer> coordinates = new ArrayList<Integer>(axisList.size());
+			int remainder = ordinal;
+			for (CellSetAxis axis : axisList) {
+				int size = axis.getPositionCount();
+				coordinates.add(size == 0 ? 0 : remainder % size);
+				remainder = size == 0 ? 0 : remainder / size;
+			}
+			return coordinates;
+		}
+
+		private int coordinatesToOrdinal(List<Integer> coordinates) {
+			List<CellSetAxis> axisList = getAxes();
+			int ordinal = 0;
+			int factor = 1;
+			for (int i = 0; i < coordinates.size() && i < axisList.size(); i++) {
+				ordinal += coordinates.get(i) * factor;
+				factor *= axisList.get(i).getPositionCount();
+			}
+			return ordinal;
+		}
+	}
+
+	private static class AxisHandler implements InvocationHandler {
+
+		private final CellSetHandler cellSetHandler;
+		private final CellSetAxis axis;
+		private final Axis ordinal;
+
+		AxisHandler(CellSetHandler cellSetHandler, CellSetAxis axis, Axis ordinal) {
+			this.cellSetHandler = cellSetHandler;
+			this.axis = axis;
+			this.ordinal = ordinal;
+		}
+
+		CellSetAxis proxy() {
+			return (CellSetAxis) Proxy.newProxyInstance(CellSetAxis.class.getClassLoader(), 
+					new Class[] { CellSetAxis.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("getAxisOrdinal".equals(name)) {
+				return ordinal;
+			}
+			if ("getCellSet".equals(name)) {
+				return cellSetHandler.proxy;
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return TransposedCellSet.invoke(axis, method, args);
+		}
+	}
+
+	private static class CellHandler implements InvocationHandler {
+
+		private final CellSetHandler cellSetHandler;
+		private final Cell cell;
+
+		CellHandler(CellSetHandler cellSetHandler, Cell cell) {
+			this.cellSetHandler = cellSetHandler;
+			this.cell = cell;
+		}
+
+		Cell proxy() {
+			return (Cell) Proxy.newProxyInstance(Cell.class.getClassLoader(), new Class[] { Cell.class }, this);
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("getCoordinateList".equals(name)) {
+				return swap(cell.getCoordinateList());
+			}
+			if ("getOrdinal".equals(name)) {
+				return cellSetHandler.proxy.coordinatesToOrdinal(swap(cell.getCoordinateList()));
+			}
+			if ("getCellSet".equals(name)) {
+				return cellSetHandler.proxy;
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			return TransposedCellSet.invoke(cell, method, args);
+		}
+	}
+}
@@ -0,0 +1,169 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.service.olap;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import org.saiku.olap.dto.resultset.ResultSetPage;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.service.util.ResultSetUtil;
+import org.saiku.service.util.ResultSetUtil.ColumnType;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * An open drillthrough result that is read page by page. Cursors that stay idle for longer than
+ * saiku.olap.drillthrough.cursor.timeout seconds are closed together with their statement.
+ */
+public class DrillthroughCursor {
+
+	private static final Logger log = LoggerFactory.getLogger(DrillthroughCursor.class);
+
+	/**
+	 * All open cursors of the server, checked for expiry periodically.
+	 */
+	private static final ConcurrentMap<String, DrillthroughCursor> openCursors = new ConcurrentHashMap<String, DrillthroughCursor>();
+
+	private static boolean sweeping = false;
+
+	private final String id;
+	private final String queryName;
+	private final ResultSet resultSet;
+	private final String[] columns;
+	private final ColumnType[] types;
+	private final String[] typeNames;
+	private Object[] pending;
+	private int offset = 0;
+	private boolean closed = false;
+	private volatile long lastAccess;
+
+	public DrillthroughCursor(String queryName, ResultSet resultSet) throws SQLException {
+		this.id = UUID.randomUUID().toString();
+		this.queryName = queryName;
+		this.resultSet = resultSet;
+		ResultSetMetaData meta = resultSet.getMetaData();
+		this.columns = ResultSetUtil.getColumnNames(meta);
+		this.types = ResultSetUtil.getColumnTypes(meta);
+		this.typeNames = new String[types.length];
+		for (int i = 0; i < types.length; i++) {
+			typeNames[i] = types[i].toString();
+		}
+		this.lastAccess = System.currentTimeMillis();
+		openCursors.put(id, this);
+		startSweeping();
+	}
+
+	public String getId() {
+		return id;
+	}
+
+	public String getQueryName() {
+		return queryName;
+	}
+
+	public long getLastAccess() {
+		return lastAccess;
+	}
+
+	public synchronized boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Reads the next <code>pageSize</code> rows. The cursor is closed once all rows have been read.
+	 */
+	public synchronized ResultSetPage fetch(int pageSize) throws SQLException {
+		if (closed) {
+			throw new SQLException("Drillthrough cursor " + id + " is closed");
+		}
+		lastAccess = System.currentTimeMillis();
+		List<Object[]> rows = new ArrayList<Object[]>();
+		if (pending != null) {
+			rows.add(pending);
+			pending = null;
+		}
+		while (rows.size() < pageSize && resultSet.next()) {
+			rows.add(ResultSetUtil.readRow(resultSet, types));
+		}
+		// read one row ahead to know whether there is another page
+		boolean more = rows.size() == pageSize && resultSet.next();
+		if (more) {
+			pending = ResultSetUtil.readRow(resultSet, types);
+		}
+		ResultSetPage page = new ResultSetPage(id, columns, typeNames, rows, offset, more);
+		offset += rows.size();
+		if (!more) {
+			close();
+		}
+		return page;
+	}
+
+	/**
+	 * Closes the result set and its statement.
+	 */
+	public synchronized void close() {
+		if (closed) {
+			return;
+		}
+		closed = true;
+		openCursors.remove(id);
+		try {
+			Statement statement = resultSet.getStatement();
+			resultSet.close();
+			if (statement != null) {
+				statement.close();
+			}
+		} catch (SQLException e) {
+			log.debug("Cannot close drillthrough cursor " + id + " of query (" + queryName + ")", e);
+		}
+	}
+
+	private boolean isExpired(long now) {
+		return now - lastAccess > SaikuProperties.olapDrillthroughCursorTimeout * 1000L;
+	}
+
+	private static synchronized void startSweeping() {
+		if (sweeping) {
+			return;
+		}
+		sweeping = true;
+		long period = Math.max(1, Math.min(60, SaikuProperties.olapDrillthroughCursorTimeout / 2));
+		QueryExecutorPool.getScheduler().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				long now = System.currentTimeMillis();
+				for (DrillthroughCursor cursor : openCursors.values()) {
+					if (cursor.isExpired(now)) {
+						log.debug("Closing idle drillthrough cursor " + cursor.id + " of query (" + cursor.queryName + ")");
+						cursor.close();
+					}
+				}
+			}
+		}, period, period, TimeUnit.SECONDS);
+	}
+}
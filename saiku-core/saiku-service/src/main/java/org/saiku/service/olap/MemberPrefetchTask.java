@@ -0,0 +1,200 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.service.olap;
+
+import java.io.PrintWriter;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import org.olap4j.Axis;
+import org.olap4j.CellSet;
+import org.olap4j.CellSetAxis;
+import org.olap4j.OlapConnection;
+import org.olap4j.OlapStatement;
+import org.olap4j.Position;
+import org.olap4j.mdx.AxisNode;
+import org.olap4j.mdx.CallNode;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.mdx.ParseTreeNode;
+import org.olap4j.mdx.ParseTreeWriter;
+import org.olap4j.mdx.SelectNode;
+import org.olap4j.mdx.Syntax;
+import org.olap4j.mdx.parser.impl.DefaultMdxParserImpl;
+import org.olap4j.metadata.Member;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Speculatively loads the children of the first members on the rows axis of a result,
+ * so drilling down on one of them hits warm member and segment caches.
+ * Runs on the prefetch executor and is skipped if the execution limit of the connection is held
+ * by the parallel executions of a dashboard.
+ */
+public class MemberPrefetchTask implements Runnable {
+
+	private static final Logger log = LoggerFactory.getLogger(MemberPrefetchTask.class);
+
+	private final String queryName;
+	private final String connectionName;
+	private final OlapConnection connection;
+	private final String catalog;
+	private final String mdx;
+	private final CellSet cellSet;
+	private final int maxMembers;
+
+	private volatile boolean cancelled = false;
+	private volatile OlapStatement statement = null;
+
+	public MemberPrefetchTask(String queryName, String connectionName, OlapConnection connection, 
+			String catalog, String mdx, CellSet cellSet, int maxMembers) 
+	{
+		this.queryName = queryName;
+		this.connectionName = connectionName;
+		this.connection = connection;
+		this.catalog = catalog;
+		this.mdx = mdx;
+		this.cellSet = cellSet;
+		this.maxMembers = maxMembers;
+	}
+
+	public void run() {
+		if (cancelled) {
+			return;
+		}
+		Semaphore limit = QueryExecutorPool.getConnectionLimit(connectionName);
+		// a timed tryAcquire respects the fairness of the limit, so waiting requests go first
+		if (!isAcquired(limit)) {
+			log.debug("Skipping prefetch for query (" + queryName + "), connection " + connectionName + " is busy");
+			return;
+		}
+		try {
+			List<Member> members = getExpandableMembers();
+			for (Member member : members) {
+				if (cancelled) {
+					return;
+				}
+				member.getChildMembers();
+			}
+			String prefetchMdx = createPrefetchMdx(members);
+			if (prefetchMdx != null && !cancelled) {
+				log.debug("Prefetching children for query (" + queryName + "):\n" + prefetchMdx);
+				connection.setCatalog(catalog);
+				statement = connection.createStatement();
+				// the result is not used, executing it populates the caches
+				statement.executeOlapQuery(prefetchMdx);
+			}
+		} catch (Exception e) {
+			log.debug("Prefetch for query (" + queryName + ") failed", e);
+		} finally {
+			closeStatement();
+			limit.release();
+		}
+	}
+
+	private static boolean isAcquired(Semaphore limit) {
+		try {
+			return limit.tryAcquire(0, TimeUnit.MILLISECONDS);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		}
+	}
+
+	public void cancel() {
+		cancelled = true;
+		OlapStatement stmt = statement;
+		if (stmt != null) {
+			try {
+				stmt.cancel();
+			} catch (Exception e) {
+				log.debug("Cannot cancel prefetch for query (" + queryName + ")", e);
+			}
+		}
+	}
+
+	private void closeStatement() {
+		OlapStatement stmt = statement;
+		statement = null;
+		if (stmt != null) {
+			try {
+				stmt.close();
+			} catch (Exception e) {
+				log.debug("Cannot close prefetch statement for query (" + queryName + ")", e);
+			}
+		}
+	}
+
+	private List<Member> getExpandableMembers() throws Exception {
+		List<Member> members = new ArrayList<Member>();
+		if (cellSet.getAxes().size() < 2) {
+			return members;
+		}
+		CellSetAxis rows = cellSet.getAxes().get(Axis.ROWS.axisOrdinal());
+		Set<String> seen = new HashSet<String>();
+		for (Position position : rows.getPositions()) {
+			for (Member member : position.getMembers()) {
+				if (members.size() >= maxMembers) {
+					return members;
+				}
+				if (member.getMemberType() != Member.Type.MEASURE 
+						&& seen.add(member.getUniqueName()) 
+						&& member.getChildMemberCount() > 0) 
+				{
+					members.add(member);
+				}
+			}
+		}
+		return members;
+	}
+
+	/**
+	 * Replaces the rows of the original query with the children of the prefetched members
+	 * of the innermost hierarchy, keeping columns and slicer.
+	 */
+	private String createPrefetchMdx(List<Member> members) {
+		if (members.size() == 0) {
+			return null;
+		}
+		Member innermost = members.get(members.size() - 1);
+		List<ParseTreeNode> children = new ArrayList<ParseTreeNode>();
+		for (Member member : members) {
+			if (member.getHierarchy().equals(innermost.getHierarchy())) {
+				children.add(new CallNode(null, "Children", Syntax.Property, 
+						IdentifierNode.parseIdentifier(member.getUniqueName())));
+			}
+		}
+		SelectNode select = new DefaultMdxParserImpl().parseSelect(mdx);
+		for (AxisNode axis : select.getAxisList()) {
+			if (axis.getAxis() == Axis.ROWS) {
+				axis.setExpression(new CallNode(null, "{}", Syntax.Braces, children));
+				StringWriter writer = new StringWriter();
+				select.unparse(new ParseTreeWriter(new PrintWriter(writer)));
+				return writer.toString();
+			}
+		}
+		return null;
+	}
+
+}
@@ -19,21 +19,38 @@
  */
 package org.saiku.service.olap;
 
+import java.io.File;
 import java.io.Serializable;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
 
+import org.apache.commons.lang.StringUtils;
 import org.olap4j.OlapConnection;
 import org.olap4j.metadata.Cube;
+import org.saiku.datasources.connection.AbstractConnectionManager;
+import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.connection.ISaikuConnection;
+import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.olap.discover.OlapMetaExplorer;
+import org.saiku.olap.discover.OlapMetadataSnapshot;
+import org.saiku.olap.dto.SaikuCatalog;
 import org.saiku.olap.dto.SaikuConnection;
 import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.dto.SaikuDimension;
 import org.saiku.olap.dto.SaikuHierarchy;
 import org.saiku.olap.dto.SaikuLevel;
 import org.saiku.olap.dto.SaikuMember;
+import org.saiku.olap.dto.SaikuSchema;
+import org.saiku.olap.util.SaikuProperties;
 import org.saiku.olap.util.exception.SaikuOlapException;
 import org.saiku.service.datasource.DatasourceService;
 import org.saiku.service.util.exception.SaikuServiceException;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
 public class OlapDiscoverService implements Serializable {
 	
@@ -42,28 +59,197 @@ public class OlapDiscoverService implements Serializable {
 	 */
 	private static final long serialVersionUID = 884682532600907574L;
 	
+	/**
+	 * Minutes between two saves of the metadata snapshot.
+	 */
+	private static final int SNAPSHOT_SAVE_INTERVAL = 10;
+
+	private static final Logger log = LoggerFactory.getLogger(OlapDiscoverService.class);
+
 	private DatasourceService datasourceService;
 	private OlapMetaExplorer metaExplorer;
+
+	private transient OlapMetadataSnapshot snapshot;
+	private transient volatile List<SaikuConnection> discoveredConnections;
+	/**
+	 * False while the connections are warming up in the background and the snapshot is served instead.
+	 */
+	private transient volatile boolean warm = true;
 	
 	public void setDatasourceService(DatasourceService ds) {
 		datasourceService = ds;
 		metaExplorer = new OlapMetaExplorer(ds.getConnectionManager());
+		metaExplorer.setExecutor(QueryExecutorPool.getDiscoverExecutor());
+		if (StringUtils.isNotBlank(SaikuProperties.olapMetadataSnapshot)) {
+			startFromSnapshot(new File(SaikuProperties.olapMetadataSnapshot.trim()));
+		}
 	}
 	
 	public List<SaikuCube> getAllCubes() {
+		if (!warm) {
+			List<SaikuConnection> snapshotConnections = getSnapshotConnections();
+			if (snapshotConnections != null) {
+				List<SaikuCube> cubes = new ArrayList<SaikuCube>();
+				for (SaikuConnection connection : snapshotConnections) {
+					for (SaikuCatalog catalog : connection.getCatalogs()) {
+						for (SaikuSchema schema : catalog.getSchemas()) {
+							cubes.addAll(schema.getCubes());
+						}
+					}
+				}
+				Collections.sort(cubes);
+				return cubes;
+			}
+		}
 		return metaExplorer.getAllCubes();
 	}
 
 	public List<SaikuConnection> getAllConnections() throws SaikuServiceException {
+		if (!warm) {
+			List<SaikuConnection> snapshotConnections = getSnapshotConnections();
+			if (snapshotConnections != null) {
+				return snapshotConnections;
+			}
+		}
 		try {
-			return metaExplorer.getAllConnections();
+			List<SaikuConnection> connections = metaExplorer.getAllConnections();
+			discoveredConnections = connections;
+			return connections;
 		} catch (SaikuOlapException e) {
 			throw new SaikuServiceException("Cannot retrieve all connections", e);
 		}
 	}
+
+	/**
+	 * Restores the metadata cache from the snapshot, opens the connections in the background and
+	 * saves the snapshot once they are warm and then regularly. Datasources with security are left out:
+	 * their metadata depends on the role of the user, and opening them without a user would reset the role
+	 * of their shared connection. The snapshot is not served if there are any.
+	 */
+	private void startFromSnapshot(final File file) {
+		OlapMetadataSnapshot loaded = OlapMetadataSnapshot.read(file);
+		snapshot = loaded != null ? loaded : new OlapMetadataSnapshot();
+		for (String name : snapshot.getConnectionNames()) {
+			if (isSecured(name)) {
+				snapshot.remove(name);
+			} else {
+				metaExplorer.getMetadataCache().putAll(name, snapshot.getMetadata(name, getFingerprint(name)));
+			}
+		}
+		warm = false;
+		Thread warmup = new Thread(new Runnable() {
+			public void run() {
+				warmUp(file);
+			}
+		}, "saiku-metadata-warmup");
+		warmup.setDaemon(true);
+		warmup.start();
+		QueryExecutorPool.getScheduler().scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				if (warm) {
+					saveSnapshot(file);
+				}
+			}
+		}, SNAPSHOT_SAVE_INTERVAL, SNAPSHOT_SAVE_INTERVAL, TimeUnit.MINUTES);
+	}
+
+	private void warmUp(File file) {
+		long start = System.currentTimeMillis();
+		try {
+			List<SaikuConnection> connections = new ArrayList<SaikuConnection>();
+			for (String name : datasourceService.getDatasources().keySet()) {
+				if (isSecured(name)) {
+					continue;
+				}
+				try {
+					connections.add(metaExplorer.getConnection(name));
+				} catch (Exception e) {
+					log.error("Cannot warm up connection " + name, e);
+				}
+			}
+			for (SaikuConnection connection : connections) {
+				for (SaikuCatalog catalog : connection.getCatalogs()) {
+					for (SaikuSchema schema : catalog.getSchemas()) {
+						for (SaikuCube cube : schema.getCubes()) {
+							try {
+								metaExplorer.getAllDimensions(cube, true, false);
+								metaExplorer.getAllMeasures(cube);
+							} catch (Exception e) {
+								log.debug("Cannot warm up metadata of cube " + cube, e);
+							}
+						}
+					}
+				}
+			}
+			discoveredConnections = connections;
+			log.info("Warmed up connections in " + (System.currentTimeMillis() - start) + "ms");
+		} catch (Exception e) {
+			log.error("Cannot warm up connections", e);
+		} finally {
+			warm = true;
+		}
+		saveSnapshot(file);
+	}
+
+	private void saveSnapshot(File file) {
+		List<SaikuConnection> connections = discoveredConnections;
+		if (connections == null) {
+			return;
+		}
+		try {
+			for (SaikuConnection connection : connections) {
+				String name = connection.getName();
+				if (isSecured(name)) {
+					snapshot.remove(name);
+				} else if (connection.getError() == null) {
+					snapshot.put(name, getFingerprint(name), connection, metaExplorer.getMetadataCache().getEntries(name));
+				}
+			}
+			snapshot.write(file);
+		} catch (Exception e) {
+			log.error("Cannot save metadata snapshot " + file, e);
+		}
+	}
+
+	/**
+	 * Returns the connections of the snapshot if it has all datasources with their current fingerprint
+	 * and none of them uses security, null otherwise.
+	 */
+	private List<SaikuConnection> getSnapshotConnections() {
+		OlapMetadataSnapshot current = snapshot;
+		if (current == null) {
+			return null;
+		}
+		List<SaikuConnection> connections = new ArrayList<SaikuConnection>();
+		for (String name : datasourceService.getDatasources().keySet()) {
+			if (isSecured(name)) {
+				return null;
+			}
+			SaikuConnection connection = current.getConnection(name, getFingerprint(name));
+			if (connection == null) {
+				return null;
+			}
+			connections.add(connection);
+		}
+		Collections.sort(connections);
+		return connections;
+	}
+
+	private boolean isSecured(String name) {
+		IConnectionManager connectionManager = datasourceService.getConnectionManager();
+		if (connectionManager instanceof AbstractConnectionManager) {
+			return ((AbstractConnectionManager) connectionManager).isDatasourceSecurityEnabled(datasourceService.getDatasource(name));
+		}
+		return Boolean.parseBoolean(getDatasourceProperties(name).getProperty(ISaikuConnection.SECURITY_ENABLED_KEY, "false"));
+	}
+
+	private String getFingerprint(String name) {
+		return OlapMetadataSnapshot.fingerprint(getDatasourceProperties(name));
+	}
 	
 	public void refreshAllConnections() throws SaikuServiceException {
 		try {
+			warm = true;
 			datasourceService.getConnectionManager().refreshAllConnections();
 		} catch (Exception e) {
 			throw new SaikuServiceException("Cannot refresh all connections", e);
@@ -72,12 +258,28 @@ public class OlapDiscoverService implements Serializable {
 	
 	public void refreshConnection(String name) throws SaikuServiceException {
 		try {
+			warm = true;
+			if (snapshot != null) {
+				snapshot.remove(name);
+			}
 			datasourceService.getConnectionManager().refreshConnection(name);
 		} catch (Exception e) {
 			throw new SaikuServiceException("Cannot refresh all connections", e);
 		}
 	}
 	
+	public Map<String, Object> getMetadataCacheStatistics() {
+		return metaExplorer.getMetadataCache().getStatistics();
+	}
+
+	public Properties getDatasourceProperties(String name) {
+		SaikuDatasource ds = datasourceService.getDatasource(name);
+		if (ds != null && ds.getProperties() != null) {
+			return ds.getProperties();
+		}
+		return new Properties();
+	}
+
 	public Cube getNativeCube(SaikuCube cube) throws SaikuServiceException {
 		try {
 			return metaExplorer.getNativeCube(cube);
@@ -95,32 +297,48 @@ public class OlapDiscoverService implements Serializable {
 	}
 
 	public List<SaikuDimension> getAllDimensions(SaikuCube cube) throws SaikuServiceException {
+		return getAllDimensions(cube, false, false);
+	}
+
+	public List<SaikuDimension> getAllDimensions(SaikuCube cube, boolean levels, boolean rootMembers) throws SaikuServiceException {
 		try {
-			return metaExplorer.getAllDimensions(cube);
+			return metaExplorer.getAllDimensions(cube, levels, rootMembers);
 		} catch (SaikuOlapException e) {
 			throw new SaikuServiceException("Cannot get all dimensions for cube ( " + cube + " )", e);
 		}
 	}
 	
 	public SaikuDimension getDimension(SaikuCube cube, String dimensionName) throws SaikuServiceException {
+		return getDimension(cube, dimensionName, false, false);
+	}
+
+	public SaikuDimension getDimension(SaikuCube cube, String dimensionName, boolean levels, boolean rootMembers) throws SaikuServiceException {
 		try {
-			return metaExplorer.getDimension(cube, dimensionName);
+			return metaExplorer.getDimension(cube, dimensionName, levels, rootMembers);
 		} catch (SaikuOlapException e) {
 			throw new SaikuServiceException("Cannot get dimension (" + dimensionName + " ) for cube ( " + cube + " )", e);
 		}
 	}
 	
 	public List<SaikuHierarchy> getAllHierarchies(SaikuCube cube) throws SaikuServiceException {
+		return getAllHierarchies(cube, false, false);
+	}
+
+	public List<SaikuHierarchy> getAllHierarchies(SaikuCube cube, boolean levels, boolean rootMembers) throws SaikuServiceException {
 		try {
-			return metaExplorer.getAllHierarchies(cube);
+			return metaExplorer.getAllHierarchies(cube, levels, rootMembers);
 		} catch (SaikuOlapException e) {
 			throw new SaikuServiceException("Cannot get all hierarchies for cube ( " + cube + " )", e);	
 		}
 	}
 	
 	public List<SaikuHierarchy> getAllDimensionHierarchies(SaikuCube cube, String dimensionName) {
+		return getAllDimensionHierarchies(cube, dimensionName, false, false);
+	}
+
+	public List<SaikuHierarchy> getAllDimensionHierarchies(SaikuCube cube, String dimensionName, boolean levels, boolean rootMembers) {
 		try {
-			SaikuDimension dim = metaExplorer.getDimension(cube, dimensionName);
+			SaikuDimension dim = metaExplorer.getDimension(cube, dimensionName, levels, rootMembers);
 			if (dim == null) {
 				throw new SaikuServiceException("Cannot find dimension ( "+ dimensionName + ") for cube ( " + cube + " )");
 			}
@@ -150,6 +368,44 @@ public class OlapDiscoverService implements Serializable {
 		}
 	}
 	
+	public List<SaikuMember> getLevelMembers(SaikuCube cube, String dimensionName, String hierarchyName, String levelName,
+			String search, boolean prefix, int offset, int limit) {
+		try {
+			return  metaExplorer.getAllMembers(cube, dimensionName, hierarchyName, levelName, search, prefix, offset, limit);
+		} catch (SaikuOlapException e) {
+			throw new SaikuServiceException("Cannot get members for cube ( " + cube 
+					+ " ) dimension ( " + dimensionName + " ) hierarchy ( " + hierarchyName + " ) level ( " + levelName + " )", e);
+		}
+	}
+
+	public Map<String, Integer> getLevelCardinalities(SaikuCube cube, String dimensionName, String hierarchyName) {
+		try {
+			return metaExplorer.getLevelCardinalities(cube, dimensionName, hierarchyName);
+		} catch (SaikuOlapException e) {
+			throw new SaikuServiceException("Cannot get cardinality for cube ( " + cube 
+					+ " ) dimension ( " + dimensionName + " ) hierarchy ( " + hierarchyName + " )", e);
+		}
+	}
+
+	public int getLevelCardinality(SaikuCube cube, String dimensionName, String hierarchyName, String levelName) {
+		try {
+			return metaExplorer.getLevelCardinality(cube, dimensionName, hierarchyName, levelName);
+		} catch (SaikuOlapException e) {
+			throw new SaikuServiceException("Cannot get cardinality for cube ( " + cube 
+					+ " ) dimension ( " + dimensionName + " ) hierarchy ( " + hierarchyName + " ) level ( " + levelName + " )", e);
+		}
+	}
+
+	public int getLevelMemberCount(SaikuCube cube, String dimensionName, String hierarchyName, String levelName,
+			String search, boolean prefix) {
+		try {
+			return  metaExplorer.getMemberCount(cube, dimensionName, hierarchyName, levelName, search, prefix);
+		} catch (SaikuOlapException e) {
+			throw new SaikuServiceException("Cannot count members for cube ( " + cube 
+					+ " ) dimension ( " + dimensionName + " ) hierarchy ( " + hierarchyName + " ) level ( " + levelName + " )", e);
+		}
+	}
+	
 	public List<SaikuMember> getMeasures(SaikuCube cube) {
 		try {
 			return metaExplorer.getAllMeasures(cube);
@@ -174,6 +430,14 @@ public class OlapDiscoverService implements Serializable {
 		}	
 	}
 
+	public Map<String, List<SaikuMember>> getMemberChildren(SaikuCube cube, List<String> uniqueMemberNames) {
+		try {
+			return metaExplorer.getMemberChildren(cube, uniqueMemberNames);
+		} catch (SaikuOlapException e) {
+			throw new SaikuServiceException(e);
+		}
+	}
+
 	public SaikuMember getMember(SaikuCube cube, String uniqueMemberName) {
 		try {
 			return metaExplorer.getMember(cube, uniqueMemberName);
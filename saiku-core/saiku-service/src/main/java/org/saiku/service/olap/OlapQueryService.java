@@ -31,6 +31,13 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
 
 import org.apache.commons.lang.StringUtils;
 import org.olap4j.AllocationPolicy;
@@ -55,6 +62,8 @@ import org.olap4j.query.QueryAxis;
 import org.olap4j.query.QueryDimension;
 import org.olap4j.query.Selection;
 import org.olap4j.query.SortOrder;
+import org.saiku.datasources.connection.ISaikuConnection;
+import org.saiku.olap.dto.SaikuCellValue;
 import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.dto.SaikuDimensionSelection;
 import org.saiku.olap.dto.SaikuMember;
@@ -64,12 +73,16 @@ import org.saiku.olap.dto.SaikuTag;
 import org.saiku.olap.dto.SaikuTuple;
 import org.saiku.olap.dto.SaikuTupleDimension;
 import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.ResultSetPage;
 import org.saiku.olap.query.IQuery;
 import org.saiku.olap.query.MdxQuery;
 import org.saiku.olap.query.OlapQuery;
 import org.saiku.olap.query.QueryDeserializer;
+import org.saiku.olap.util.CellDataSetSorter;
 import org.saiku.olap.util.ObjectUtil;
 import org.saiku.olap.util.OlapResultSetUtil;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.util.TransposedCellSet;
 import org.saiku.olap.util.exception.SaikuOlapException;
 import org.saiku.olap.util.formatter.CellSetFormatter;
 import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
@@ -94,10 +107,28 @@ public class OlapQueryService implements Serializable {
 
 	private OlapDiscoverService olapDiscoverService;
 	
-	private Map<String,IQuery> queries = new HashMap<String,IQuery>();
+	private Map<String,IQuery> queries = new ConcurrentHashMap<String,IQuery>();
 	
 	private ICellSetFormatterFactory cellSetFormatterFactory;
 
+	private Map<String,MemberPrefetchTask> prefetches = new ConcurrentHashMap<String,MemberPrefetchTask>();
+
+	private Map<String,FormattedResult> lastResults = new ConcurrentHashMap<String,FormattedResult>();
+
+	private Map<String,DrillthroughCursor> drillthroughCursors = new ConcurrentHashMap<String,DrillthroughCursor>();
+
+	private Map<String,DrillthroughContext> drillthroughContexts = new ConcurrentHashMap<String,DrillthroughContext>();
+
+	/**
+	 * Query version the stored cellset of a query was executed or pivoted for.
+	 */
+	private Map<String,Integer> cellSetVersions = new ConcurrentHashMap<String,Integer>();
+
+	/**
+	 * Queries whose stored cellset was transposed by swapAxes, with the query version after the swap.
+	 */
+	private Map<String,Integer> pivots = new ConcurrentHashMap<String,Integer>();
+
 	public void setOlapDiscoverService(OlapDiscoverService os) {
 		olapDiscoverService = os;
 	}
@@ -140,6 +171,21 @@ public class OlapQueryService implements Serializable {
 		}
 	}
 
+	/**
+	 * Replaces the model of an open query with the one described by the given xml,
+	 * e.g. to roll back a set of changes. Tag and scenario of the current query are kept.
+	 */
+	public void restoreQuery(String queryName, String xml) {
+		IQuery old = getIQuery(queryName);
+		createNewOlapQuery(queryName, xml);
+		IQuery query = getIQuery(queryName);
+		if (old != null) {
+			query.setScenario(old.getScenario());
+			if (old.getTag() != null && query.getType() == IQuery.QueryType.QM) {
+				query.setTag(old.getTag());
+			}
+		}
+	}
 
 	public void closeQuery(String queryName) {
 		try {
@@ -182,15 +228,88 @@ public class OlapQueryService implements Serializable {
 	}
 
 	public CellDataSet execute(String queryName, String formatter) {
-	    ICellSetFormatter cellSetFormatter = cellSetFormatterFactory.getCellSetFormatter(formatter);
+	    ICellSetFormatter cellSetFormatter = getFormatter(formatter);
         return execute(queryName, cellSetFormatter);
 	}
 
 	public CellDataSet execute(String queryName, ICellSetFormatter formatter) {
+		IQuery query = getIQuery(queryName);
+		OlapConnection con = olapDiscoverService.getNativeConnection(query.getSaikuCube().getConnectionName());
+		return execute(queryName, query, con, formatter, false);
+	}
+
+	/**
+	 * Executes several queries in parallel on the shared {@link QueryExecutorPool}, respecting the
+	 * limit of parallel executions per connection. The listener is called on the calling thread
+	 * as soon as a query completes. Returns when all queries have been executed.
+	 */
+	public void executeAll(List<String> queryNames, final String formatter, IQueryExecutionListener listener) {
+		CompletionService<CellDataSet> completion = new ExecutorCompletionService<CellDataSet>(QueryExecutorPool.getExecutor());
+		Map<Future<CellDataSet>, String> submitted = new HashMap<Future<CellDataSet>, String>();
+		List<String> serial = new ArrayList<String>();
+
+		for (final String queryName : queryNames) {
+			final IQuery query = getIQuery(queryName);
+			if (query == null) {
+				listener.executed(queryName, null, new SaikuServiceException("Query not found: " + queryName));
+				continue;
+			}
+			if (query.getScenario() != null) {
+				// scenarios are set on the shared connection, don't run those concurrently
+				serial.add(queryName);
+				continue;
+			}
+			// connections are resolved here, the security context is bound to the calling thread
+			final String connectionName = query.getSaikuCube().getConnectionName();
+			final OlapConnection con;
+			try {
+				con = olapDiscoverService.getNativeConnection(connectionName);
+			} catch (Exception e) {
+				listener.executed(queryName, null, e);
+				continue;
+			}
+			submitted.put(completion.submit(new Callable<CellDataSet>() {
+				public CellDataSet call() throws Exception {
+					return execute(queryName, query, con, getFormatter(formatter), true);
+				}
+			}), queryName);
+		}
+
+		for (int i = 0; i < submitted.size(); i++) {
+			Future<CellDataSet> future = null;
+			try {
+				future = completion.take();
+				CellDataSet result = future.get();
+				listener.executed(submitted.get(future), result, null);
+			} catch (ExecutionException e) {
+				Exception cause = e.getCause() instanceof Exception ? (Exception) e.getCause() : e;
+				listener.executed(submitted.get(future), null, cause);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new SaikuServiceException("Interrupted while executing queries " + queryNames, e);
+			}
+		}
+
+		for (String queryName : serial) {
+			try {
+				listener.executed(queryName, execute(queryName, getFormatter(formatter)), null);
+			} catch (Exception e) {
+				listener.executed(queryName, null, e);
+			}
+		}
+	}
+
+	/**
+	 * Executes the query. Executions on the pool hold the limit of their connection while the query runs,
+	 * so a dashboard doesn't take all connections of a datasource, the result is formatted after releasing it.
+	 * The prefetch is scheduled once the limit is released again.
+	 */
+	private CellDataSet execute(String queryName, IQuery query, OlapConnection con, ICellSetFormatter formatter, boolean limited) {
+		cancelPrefetch(queryName);
+		CellDataSet result;
+		CellSet prefetchCellSet = null;
+		Semaphore limit = limited ? acquireConnectionLimit(query, queryName) : null;
 		try {
-//			System.out.println("Execute: ID " + Thread.currentThread().getId() + " Name: " + Thread.currentThread().getName());
-			IQuery query = getIQuery(queryName);
-			OlapConnection con = olapDiscoverService.getNativeConnection(query.getSaikuCube().getConnectionName());
 			Long start = (new Date()).getTime();
 			if (query.getScenario() != null) {
 				log.info("Query (" + queryName + ") Setting scenario:" + query.getScenario().getId());
@@ -200,28 +319,177 @@ public class OlapQueryService implements Serializable {
 			if (query.getTag() != null) {
 				query = applyTag(query, con, query.getTag());
 			}
-			CellSet cellSet =  query.execute();
+			CellSet cellSet;
+			Integer pivotVersion = pivots.remove(queryName);
+			if (pivotVersion != null && pivotVersion == query.getVersion() && query.getCellset() != null) {
+				log.debug("Query (" + queryName + ") using the pivoted result of the previous execution");
+				cellSet = query.getCellset();
+			} else {
+				cellSet = query.execute();
+			}
 			Long exec = (new Date()).getTime();
 
 			if (query.getScenario() != null) {
 				log.info("Query (" + queryName + ") removing scenario:" + query.getScenario().getId());
 				con.setScenario(null);
 			}
+			if (limit != null) {
+				limit.release();
+				limit = null;
+			}
 
-			CellDataSet result = OlapResultSetUtil.cellSet2Matrix(cellSet,formatter);
+			long cellCount = OlapResultSetUtil.getCellCount(cellSet);
+			int maxCells = getMaxCells(query.getSaikuCube().getConnectionName(), con);
+			if (maxCells > 0 && cellCount > maxCells) {
+				log.warn("Query (" + queryName + ") result has " + cellCount + " cells which exceeds the limit of " 
+						+ maxCells + " cells, returning preview only");
+				result = OlapResultSetUtil.cellSet2Preview(cellSet, 
+						SaikuProperties.olapResultPreviewRows, SaikuProperties.olapResultPreviewColumns);
+			} else {
+				result = format(queryName, cellSet, formatter);
+				prefetchCellSet = cellSet;
+			}
 			Long format = (new Date()).getTime();
 			log.info("Size: " + result.getWidth() + "/" + result.getHeight() + "\tExecute:\t" + (exec - start)
 					+ "ms\tFormat:\t" + (format - exec) + "ms\t Total: " + (format - start) + "ms");
 			result.setRuntime(new Double(format - start).intValue());
-			getIQuery(queryName).storeCellset(cellSet);
-			return result;
+			IQuery storedQuery = getIQuery(queryName);
+			storedQuery.storeCellset(cellSet);
+			if (storedQuery.getScenario() == null && storedQuery.getTag() == null) {
+				cellSetVersions.put(queryName, storedQuery.getVersion());
+			} else {
+				cellSetVersions.remove(queryName);
+			}
 		} catch (Exception e) {
 			throw new SaikuServiceException("Can't execute query: " + queryName,e);
 		} catch (Error e) {
 			throw new SaikuServiceException("Can't execute query: " + queryName,e);
+		} finally {
+			if (limit != null) {
+				limit.release();
+			}
 		}
+		if (prefetchCellSet != null) {
+			prefetch(queryName, query, con, prefetchCellSet);
+		}
+		return result;
 	}
 	
+	private static Semaphore acquireConnectionLimit(IQuery query, String queryName) {
+		Semaphore limit = QueryExecutorPool.getConnectionLimit(query.getSaikuCube().getConnectionName());
+		try {
+			limit.acquire();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SaikuServiceException("Interrupted while waiting to execute query: " + queryName, e);
+		}
+		return limit;
+	}
+
+	/**
+	 * Sorts and limits the rows of the last result of a query in memory, see {@link CellDataSetSorter}.
+	 * The query is only executed if it changed since the last result or the result was built with another formatter.
+	 * @param column the column of the result to sort by, a negative value keeps the current order.
+	 * @param sortOrder ASC, DESC, BASC or BDESC.
+	 * @param limit the number of rows to keep, 0 keeps all rows.
+	 */
+	public CellDataSet sortResult(String queryName, String formatter, int column, String sortOrder, int limit) {
+		IQuery query = getIQuery(queryName);
+		ICellSetFormatter cellSetFormatter = getFormatter(formatter);
+		FormattedResult last = lastResults.get(queryName);
+		if (last == null || last.version != query.getVersion() 
+				|| !last.formatter.equals(cellSetFormatter.getClass().getName())) {
+			CellDataSet executed = execute(queryName, cellSetFormatter);
+			last = lastResults.get(queryName);
+			if (last == null || executed.isTruncated()) {
+				log.warn("Query (" + queryName + ") result is only a preview and cannot be sorted");
+				return executed;
+			}
+		}
+		try {
+			Long start = (new Date()).getTime();
+			SortOrder order = StringUtils.isNotBlank(sortOrder) ? SortOrder.valueOf(sortOrder.toUpperCase()) : null;
+			CellDataSet result = CellDataSetSorter.sort(last.result, column, order, limit);
+			result.setRuntime(new Double((new Date()).getTime() - start).intValue());
+			return result;
+		} catch (Exception e) {
+			throw new SaikuServiceException("Cannot sort result of query (" + queryName + ") by column " + column, e);
+		}
+	}
+
+	/**
+	 * Formats the cellset. If the axes are the same as in the last result of this query, e.g. because only the
+	 * filter selections changed, the headers of that result are reused and only the data cells are read.
+	 */
+	private CellDataSet format(String queryName, CellSet cellSet, ICellSetFormatter formatter) {
+		List<List<String>> signature = OlapResultSetUtil.getAxisSignature(cellSet);
+		FormattedResult last = lastResults.get(queryName);
+		CellDataSet result;
+		if (last != null && last.formatter.equals(formatter.getClass().getName()) && last.signature.equals(signature)) {
+			log.debug("Query (" + queryName + ") axes unchanged, reusing headers of the previous result");
+			result = OlapResultSetUtil.refillCellSet(last.result, cellSet);
+		} else {
+			result = OlapResultSetUtil.cellSet2Matrix(cellSet,formatter);
+		}
+		lastResults.put(queryName, new FormattedResult(formatter.getClass().getName(), getIQuery(queryName).getVersion(), 
+				signature, result));
+		return result;
+	}
+
+	/**
+	 * Schedules loading the children of the first row members in the background, if enabled.
+	 */
+	private void prefetch(String queryName, IQuery query, OlapConnection con, CellSet cellSet) {
+		if (!SaikuProperties.olapPrefetchEnabled || query.getType() != IQuery.QueryType.QM) {
+			return;
+		}
+		try {
+			MemberPrefetchTask task = new MemberPrefetchTask(queryName, query.getSaikuCube().getConnectionName(), con, 
+					query.getCube().getSchema().getCatalog().getName(), query.getMdx(), cellSet, SaikuProperties.olapPrefetchMembers);
+			prefetches.put(queryName, task);
+			QueryExecutorPool.getPrefetchExecutor().execute(task);
+		} catch (Exception e) {
+			log.debug("Cannot schedule prefetch for query (" + queryName + ")", e);
+		}
+	}
+
+	private void cancelPrefetch(String queryName) {
+		MemberPrefetchTask task = prefetches.remove(queryName);
+		if (task != null) {
+			task.cancel();
+		}
+	}
+
+	/**
+	 * Returns the maximum number of cells a result may have before it is only returned as a preview.
+	 * The global setting can be overridden per datasource and per role of the connection. 0 means unlimited.
+	 */
+	private int getMaxCells(String connectionName, OlapConnection con) {
+		int maxCells = SaikuProperties.olapResultMaxCells;
+		Properties props = olapDiscoverService.getDatasourceProperties(connectionName);
+		maxCells = parseMaxCells(props.getProperty(ISaikuConnection.RESULT_MAXCELLS_KEY), maxCells);
+		try {
+			String role = con.getRoleName();
+			if (StringUtils.isNotBlank(role)) {
+				maxCells = parseMaxCells(props.getProperty(ISaikuConnection.RESULT_MAXCELLS_KEY + "." + role), maxCells);
+			}
+		} catch (OlapException e) {
+			log.debug("Cannot determine role of connection " + connectionName, e);
+		}
+		return maxCells;
+	}
+
+	private int parseMaxCells(String value, int defaultValue) {
+		if (StringUtils.isNotBlank(value)) {
+			try {
+				return Integer.parseInt(value.trim());
+			} catch (NumberFormatException e) {
+				log.warn("Invalid value for " + ISaikuConnection.RESULT_MAXCELLS_KEY + ": " + value);
+			}
+		}
+		return defaultValue;
+	}
+
 	public SaikuQuery simulateTag(String queryName, SaikuTag tag) {
 		try {
 			IQuery query = getIQuery(queryName);
@@ -233,8 +501,7 @@ public class OlapQueryService implements Serializable {
 	}
 	
 	private IQuery applyTag(IQuery query, OlapConnection con, SaikuTag t) throws Exception {
-		String xml = query.toXml();
-		query = QueryDeserializer.unparse(xml, con);
+		query = query.copy();
 		
 		List<SaikuTupleDimension> doneDimension = new ArrayList<SaikuTupleDimension>();
 		Map<String,QueryDimension> dimensionMap = new HashMap<String,QueryDimension>();
@@ -311,7 +578,7 @@ public class OlapQueryService implements Serializable {
 
 	public ResultSet drillthrough(String queryName, int maxrows, String returns) {
 		try {
-			final OlapConnection con = olapDiscoverService.getNativeConnection(getQuery(queryName).getCube().getConnectionName()); 
+			final OlapConnection con = olapDiscoverService.getNativeConnection(getIQuery(queryName).getSaikuCube().getConnectionName()); 
 			final OlapStatement stmt = con.createStatement();
 			String mdx = getMDXQuery(queryName);
 			if (maxrows > 0) {
@@ -333,45 +600,35 @@ public class OlapQueryService implements Serializable {
 		try {
 			IQuery query = getIQuery(queryName);
 			CellSet cs = query.getCellset();
-			SaikuCube cube = getQuery(queryName).getCube();
-			final OlapConnection con = olapDiscoverService.getNativeConnection(cube.getConnectionName()); 
+			DrillthroughContext context = getDrillthroughContext(queryName, query);
+			final OlapConnection con = olapDiscoverService.getNativeConnection(context.connectionName); 
 			final OlapStatement stmt = con.createStatement();
 
-			String select = null;
-			StringBuffer buf = new StringBuffer();
-			buf.append("SELECT (");
+			StringBuilder select = new StringBuilder("DRILLTHROUGH ");
+			if (maxrows != null && maxrows > 0) {
+				select.append("MAXROWS ").append(maxrows).append(" ");
+			}
+			select.append("SELECT (");
 			for (int i = 0; i < cellPosition.size(); i++) {
 				List<Member> members = cs.getAxes().get(i).getPositions().get(cellPosition.get(i)).getMembers();
 				for (int k = 0; k < members.size(); k++) {
 					Member m = members.get(k);
 					if (k > 0 || i > 0) {
-						buf.append(", ");
+						select.append(", ");
 					}
-					buf.append(m.getUniqueName());
+					select.append(m.getUniqueName());
 				}
 			}
-			buf.append(") ON COLUMNS \r\n");
-			buf.append("FROM " + cube.getCubeName() + "\r\n");
-			
-			SelectNode sn = (new DefaultMdxParserImpl().parseSelect(getMDXQuery(queryName))); 
-			final Writer writer = new StringWriter();
-			sn.getFilterAxis().unparse(new ParseTreeWriter(new PrintWriter(writer)));
-			if (StringUtils.isNotBlank(writer.toString())) {
-				buf.append("WHERE " + writer.toString());
-			}
-			select = buf.toString(); 
-			if (maxrows > 0) {
-				select = "DRILLTHROUGH MAXROWS " + maxrows + " " + select + "\r\n";
-			}
-			else {
-				select = "DRILLTHROUGH " + select + "\r\n";
-			}
+			select.append(") ON COLUMNS \r\n");
+			select.append("FROM ").append(context.cubeName).append("\r\n");
+			select.append(context.where);
+			select.append("\r\n");
 			if (StringUtils.isNotBlank(returns)) {
-				select += "\r\n RETURN " + returns;
+				select.append("\r\n RETURN ").append(returns);
 			}
 
 			log.debug("Drill Through for query (" + queryName + ") : \r\n" + select);
-			return  stmt.executeQuery(select);
+			return  stmt.executeQuery(select.toString());
 
 
 		} catch (Exception e) {
@@ -379,10 +636,100 @@ public class OlapQueryService implements Serializable {
 		}
 	}
 
+	/**
+	 * Returns the cube and the WHERE clause used to drill through cells of a query. They are only
+	 * parsed from the query's MDX again once the query has changed.
+	 */
+	private DrillthroughContext getDrillthroughContext(String queryName, IQuery query) throws Exception {
+		DrillthroughContext context = drillthroughContexts.get(queryName);
+		if (context == null || context.version != query.getVersion()) {
+			SaikuCube cube = query.getSaikuCube();
+			SelectNode sn = (new DefaultMdxParserImpl().parseSelect(query.getMdx())); 
+			final Writer writer = new StringWriter();
+			sn.getFilterAxis().unparse(new ParseTreeWriter(new PrintWriter(writer)));
+			String where = StringUtils.isNotBlank(writer.toString()) ? "WHERE " + writer.toString() : "";
+			context = new DrillthroughContext(query.getVersion(), cube.getConnectionName(), cube.getCubeName(), where);
+			drillthroughContexts.put(queryName, context);
+		}
+		return context;
+	}
+
+
+	/**
+	 * Starts a drillthrough that is read page by page and returns its first page.
+	 * If the session already has saiku.olap.drillthrough.cursor.max open cursors, the least recently used one is closed.
+	 * @param cellPosition the cell to drill through, or null to drill through the whole query.
+	 * @param maxrows the maximum number of rows of the whole drillthrough, 0 for no limit.
+	 */
+	public ResultSetPage openDrillthrough(String queryName, List<Integer> cellPosition, int maxrows, String returns, int pageSize) {
+		DrillthroughCursor oldest = null;
+		for (DrillthroughCursor cursor : drillthroughCursors.values()) {
+			if (cursor.isClosed()) {
+				drillthroughCursors.remove(cursor.getId());
+			} else if (oldest == null || cursor.getLastAccess() < oldest.getLastAccess()) {
+				oldest = cursor;
+			}
+		}
+		if (oldest != null && drillthroughCursors.size() >= SaikuProperties.olapDrillthroughCursorMax) {
+			log.debug("Too many drillthrough cursors, closing cursor of query (" + oldest.getQueryName() + ")");
+			closeDrillthrough(oldest.getId());
+		}
+		ResultSet rs = cellPosition == null ? drillthrough(queryName, maxrows, returns) 
+				: drillthrough(queryName, cellPosition, maxrows, returns);
+		DrillthroughCursor cursor;
+		try {
+			cursor = new DrillthroughCursor(queryName, rs);
+		} catch (SQLException e) {
+			try {
+				rs.getStatement().close();
+			} catch (SQLException ce) {
+				log.debug("Cannot close drillthrough of query (" + queryName + ")", ce);
+			}
+			throw new SaikuServiceException("Error DRILLTHROUGH: " + queryName,e);
+		}
+		drillthroughCursors.put(cursor.getId(), cursor);
+		return fetchDrillthrough(cursor.getId(), pageSize);
+	}
+
+	/**
+	 * Returns the next page of an open drillthrough. The cursor is closed after its last page.
+	 */
+	public ResultSetPage fetchDrillthrough(String cursorId, int pageSize) {
+		DrillthroughCursor cursor = drillthroughCursors.get(cursorId);
+		if (cursor == null || cursor.isClosed()) {
+			drillthroughCursors.remove(cursorId);
+			throw new SaikuServiceException("Drillthrough cursor " + cursorId + " does not exist or has expired");
+		}
+		try {
+			ResultSetPage page = cursor.fetch(pageSize);
+			if (!page.hasMore()) {
+				drillthroughCursors.remove(cursorId);
+			}
+			return page;
+		} catch (SQLException e) {
+			closeDrillthrough(cursorId);
+			throw new SaikuServiceException("Error reading drillthrough of query: " + cursor.getQueryName(),e);
+		}
+	}
+
+	public void closeDrillthrough(String cursorId) {
+		DrillthroughCursor cursor = drillthroughCursors.remove(cursorId);
+		if (cursor != null) {
+			cursor.close();
+		}
+	}
+
+	private void closeDrillthroughs(String queryName) {
+		for (DrillthroughCursor cursor : drillthroughCursors.values()) {
+			if (queryName.equals(cursor.getQueryName())) {
+				closeDrillthrough(cursor.getId());
+			}
+		}
+	}
 
 	public byte[] exportDrillthroughCsv(String queryName, int maxrows) {
 		try {
-			final OlapConnection con = olapDiscoverService.getNativeConnection(getQuery(queryName).getCube().getConnectionName()); 
+			final OlapConnection con = olapDiscoverService.getNativeConnection(getIQuery(queryName).getSaikuCube().getConnectionName()); 
 			final OlapStatement stmt = con.createStatement();
 			String mdx = getMDXQuery(queryName);
 			if (maxrows > 0) {
@@ -407,53 +754,106 @@ public class OlapQueryService implements Serializable {
 
 
 	public void setCellValue(String queryName, List<Integer> position, String value, String allocationPolicy) {
-		try {
+		List<SaikuCellValue> values = new ArrayList<SaikuCellValue>();
+		values.add(new SaikuCellValue(position, value, allocationPolicy));
+		setCellValues(queryName, values);
+	}
 
-			IQuery query = getIQuery(queryName);
-			OlapConnection con = olapDiscoverService.getNativeConnection(query.getSaikuCube().getConnectionName());
+	/**
+	 * Writes several values into the result of a query in one pass. The values are written to the cellset
+	 * of the query's scenario, which is created and executed first if the query has none yet.
+	 * Execute the query afterwards to get the updated result.
+	 */
+	public void setCellValues(String queryName, List<SaikuCellValue> values) {
+		IQuery query = getIQuery(queryName);
+		OlapConnection con = null;
+		try {
+			con = olapDiscoverService.getNativeConnection(query.getSaikuCube().getConnectionName());
 
-			Scenario s;
-			if (query.getScenario() == null) {
+			Scenario s = query.getScenario();
+			boolean execute = s == null || query.getCellset() == null;
+			if (s == null) {
 				s = con.createScenario();
 				query.setScenario(s);
-				con.setScenario(s);
-				System.out.println("Created scenario:" + s + " : cell:" + position + " value" + value);
-			} else {
-				s = query.getScenario();
-				con.setScenario(s);
-				System.out.println("Using scenario:" + s + " : cell:" + position + " value" + value);
-
-			}
-
-
-			CellSet cs1 = query.execute();
-			query.storeCellset(cs1);
-
-			Object v = null;
-			try {
-				v = Integer.parseInt(value);
-			} catch (Exception e) {
-				v = Double.parseDouble(value);
+				log.info("Query (" + queryName + ") created scenario: " + s.getId());
 			}
-			if (v == null) {
-				throw new SaikuServiceException("Error setting value of query " + queryName + " to:" + v);
+			con.setScenario(s);
+			if (execute) {
+				query.storeCellset(query.execute());
 			}
 
-			allocationPolicy = AllocationPolicy.EQUAL_ALLOCATION.toString();
-
-			AllocationPolicy ap = AllocationPolicy.valueOf(allocationPolicy);
 			CellSet cs = query.getCellset();
-			cs.getCell(position).setValue(v, ap);
-			con.setScenario(null);
+			for (SaikuCellValue cellValue : values) {
+				Object v = parseCellValue(queryName, cellValue.getValue());
+				AllocationPolicy ap = AllocationPolicy.EQUAL_ALLOCATION;
+				if (StringUtils.isNotBlank(cellValue.getAllocationPolicy())) {
+					ap = AllocationPolicy.valueOf(cellValue.getAllocationPolicy().toUpperCase());
+				}
+				if (log.isDebugEnabled()) {
+					log.debug("Query (" + queryName + ") scenario: " + s.getId() + " cell: " + cellValue.getPosition() 
+							+ " value: " + v + " allocation: " + ap);
+				}
+				cs.getCell(cellValue.getPosition()).setValue(v, ap);
+			}
+			// the written values change the result without changing the query model
+			query.invalidate();
+		} catch (SaikuServiceException e) {
+			throw e;
 		} catch (Exception e) {
-			throw new SaikuServiceException("Error setting value: " + queryName,e);
+			throw new SaikuServiceException("Error setting values of query: " + queryName,e);
+		} finally {
+			if (con != null) {
+				try {
+					con.setScenario(null);
+				} catch (Exception e) {
+					log.debug("Cannot reset scenario of query (" + queryName + ")", e);
+				}
+			}
 		}
+	}
 
-
+	private Object parseCellValue(String queryName, String value) {
+		try {
+			return Integer.parseInt(value);
+		} catch (NumberFormatException e) {
+			try {
+				return Double.parseDouble(value);
+			} catch (Exception e2) {
+				throw new SaikuServiceException("Error setting value of query " + queryName + " to: " + value);
+			}
+		}
 	}
 
+	/**
+	 * Swaps rows and columns. If the stored cellset is up to date, it is transposed in memory and the next
+	 * execution returns it instead of sending the swapped query to the server again.
+	 */
 	public void swapAxes(String queryName) {
-		getIQuery(queryName).swapAxes();
+		IQuery query = getIQuery(queryName);
+		CellSet cellSet = query.getCellset();
+		Integer version = cellSetVersions.remove(queryName);
+		boolean pivot = version != null && version == query.getVersion() && canPivot(query, cellSet);
+		pivots.remove(queryName);
+		query.swapAxes();
+		if (pivot) {
+			query.storeCellset(TransposedCellSet.transpose(cellSet));
+			cellSetVersions.put(queryName, query.getVersion());
+			pivots.put(queryName, query.getVersion());
+		}
+	}
+
+	/**
+	 * A result can only be pivoted if swapping the query would not change its content: both axes have to use
+	 * the same non empty setting and neither of them may be sorted.
+	 */
+	private boolean canPivot(IQuery query, CellSet cellSet) {
+		if (query.getType() != IQuery.QueryType.QM || query.getScenario() != null || query.getTag() != null
+				|| !TransposedCellSet.canTranspose(cellSet)) {
+			return false;
+		}
+		QueryAxis rows = query.getAxis(Axis.ROWS);
+		QueryAxis columns = query.getAxis(Axis.COLUMNS);
+		return rows.isNonEmpty() == columns.isNonEmpty() && rows.getSortOrder() == null && columns.getSortOrder() == null;
 	}
 
 	public boolean includeMember(String queryName, String dimensionName, String uniqueMemberName, String selectionType, int memberposition){
@@ -470,6 +870,7 @@ public class OlapQueryService implements Serializable {
 				memberposition = dimension.getInclusions().size();
 			}
 			dimension.getInclusions().add(memberposition, sel);
+			query.invalidate();
 			return true;
 		} catch (OlapException e) {
 			throw new SaikuServiceException("Cannot include member query ("+queryName+") dimension (" + dimensionName + ") member ("+
@@ -488,6 +889,7 @@ public class OlapQueryService implements Serializable {
 			}
 			Selection selection = dimension.createSelection(selectionMode, memberList);
 			dimension.getInclusions().remove(selection);
+			query.invalidate();
 			return true;
 		} catch (OlapException e) {
 			throw new SaikuServiceException("Error removing member (" + uniqueMemberName + ") of dimension (" +dimensionName+")",e);
@@ -504,6 +906,7 @@ public class OlapQueryService implements Serializable {
 						Selection sel = dimension.createSelection(level);
 						if (!dimension.getInclusions().contains(sel)) {
 							dimension.include(level);
+							query.invalidate();
 						}
 						return true;
 					}
@@ -534,6 +937,7 @@ public class OlapQueryService implements Serializable {
 								}
 							}
 							dimension.getInclusions().removeAll(removals);
+							query.invalidate();
 						}
 					}
 				}
@@ -570,6 +974,7 @@ public class OlapQueryService implements Serializable {
 		moveDimension(queryName, "UNUSED" , dimensionName, -1);
 		query.getDimension(dimensionName).getExclusions().clear();
 		query.getDimension(dimensionName).getInclusions().clear();
+		query.invalidate();
 	}
 
 	public List<SaikuDimensionSelection> getAxisSelection(String queryName, String axis) {
@@ -624,6 +1029,7 @@ public class OlapQueryService implements Serializable {
 			for (QueryDimension dim : qAxis.getDimensions()) {
 				qAxis.removeDimension(dim);
 			}
+			query.invalidate();
 		}
 	}
 
@@ -641,14 +1047,22 @@ public class OlapQueryService implements Serializable {
 			QueryAxis qAxis = query.getAxis(Axis.Standard.valueOf(axisName));
 			SortOrder so = SortOrder.valueOf(sortOrder);
 			qAxis.sort(so, sortLiteral);
+			query.invalidate();
 		}
 	}
 	
+	/**
+	 * Clears the sort order of the axis. The query only changes if the axis was sorted, so clearing
+	 * unsorted axes before swapping them keeps the result that can be pivoted.
+	 */
 	public void clearSort(String queryName, String axisName) {
 		IQuery query = getIQuery(queryName);
 		if (Axis.Standard.valueOf(axisName) != null) {
 			QueryAxis qAxis = query.getAxis(Axis.Standard.valueOf(axisName));
-			qAxis.clearSort();
+			if (qAxis.getSortOrder() != null) {
+				qAxis.clearSort();
+				query.invalidate();
+			}
 		}
 	}
 
@@ -661,6 +1075,7 @@ public class OlapQueryService implements Serializable {
 		IQuery query = getIQuery(queryName);
 		QueryAxis newAxis = query.getAxis(Axis.Standard.valueOf(axisName));
 		newAxis.setNonEmpty(bool);
+		query.invalidate();
 	}
 
 	public Properties setProperties(String queryName, Properties props) {
@@ -748,7 +1163,7 @@ public class OlapQueryService implements Serializable {
 				for (int i = 0; i < cellPosition.size(); i++) {
 					members.addAll(cs.getAxes().get(i).getPositions().get(cellPosition.get(i)).getMembers());
 				}
-				List <SaikuMember> sm = ObjectUtil.convertMembers(members);
+				List <SaikuMember> sm = ObjectUtil.convertMembers(cube, members);
 				SaikuTuple tuple = new SaikuTuple(sm);
 				tuples.add(tuple);
 				
@@ -785,10 +1200,21 @@ public class OlapQueryService implements Serializable {
 	}
 
 	private void putIQuery(String queryName, IQuery query) {
+		cancelPrefetch(queryName);
+		lastResults.remove(queryName);
+		cellSetVersions.remove(queryName);
+		pivots.remove(queryName);
+		drillthroughContexts.remove(queryName);
 		queries.put(queryName, query);
 	}
 	
 	private void removeIQuery(String queryName) {
+		cancelPrefetch(queryName);
+		closeDrillthroughs(queryName);
+		lastResults.remove(queryName);
+		cellSetVersions.remove(queryName);
+		pivots.remove(queryName);
+		drillthroughContexts.remove(queryName);
 		queries.remove(queryName);
 	}
 	
@@ -796,15 +1222,80 @@ public class OlapQueryService implements Serializable {
 	private IQuery getIQuery(String queryName) {
 		return  queries.get(queryName);
 	}
+
+	/**
+	 * True if the next execution of the query returns the result transposed by {@link #swapAxes(String)}.
+	 */
+	boolean isPivoted(String queryName) {
+		IQuery query = getIQuery(queryName);
+		Integer version = pivots.get(queryName);
+		return query != null && version != null && version == query.getVersion();
+	}
 	
 	private Map<String, IQuery> getIQueryMap() {
 		return queries;
 	}
 	
+	/**
+	 * Returns a new formatter instance, formatters keep state while formatting a cellset.
+	 */
+	private ICellSetFormatter getFormatter(String formatter) {
+		if (cellSetFormatterFactory != null) {
+			return cellSetFormatterFactory.getCellSetFormatter(formatter);
+		}
+		formatter = formatter == null ? "" : formatter.toLowerCase();
+		if (formatter.equals("flat")) {
+			return new CellSetFormatter();
+		} else if (formatter.equals("flattened")) {
+			return new FlattenedCellSetFormatter();
+		}
+		return new HierarchicalCellSetFormatter();
+	}
+
 	public ICellSetFormatterFactory getCellSetFormatterFactory() {
         return cellSetFormatterFactory;
     }
 	public void setCellSetFormatterFactory(ICellSetFormatterFactory cellSetFormatterFactory) {
         this.cellSetFormatterFactory = cellSetFormatterFactory;
     }
+
+	/**
+	 * The last formatted result of a query together with the axes it was built from.
+	 */
+	private static class FormattedResult implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final String formatter;
+		private final int version;
+		private final List<List<String>> signature;
+		private final CellDataSet result;
+
+		FormattedResult(String formatter, int version, List<List<String>> signature, CellDataSet result) {
+			this.formatter = formatter;
+			this.version = version;
+			this.signature = signature;
+			this.result = result;
+		}
+	}
+
+	/**
+	 * The parts of a drillthrough statement that only depend on the query, not on the cell.
+	 */
+	private static class DrillthroughContext implements Serializable {
+
+		private static final long serialVersionUID = 1L;
+
+		private final int version;
+		private final String connectionName;
+		private final String cubeName;
+		private final String where;
+
+		DrillthroughContext(int version, String connectionName, String cubeName, String where) {
+			this.version = version;
+			this.connectionName = connectionName;
+			this.cubeName = cubeName;
+			this.where = where;
+		}
+	}
 }
@@ -0,0 +1,146 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.service.olap;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.saiku.olap.util.SaikuProperties;
+
+/**
+ * Server wide pool used to execute queries in parallel. The number of threads is limited by
+ * saiku.olap.parallel.threads, the number of parallel executions per connection by
+ * saiku.olap.parallel.connection.limit, which the pool and the prefetcher take while a query runs. Also holds the executors for background prefetching and housekeeping.
+ */
+public class QueryExecutorPool {
+
+	private static final int PREFETCH_QUEUE_SIZE = 10;
+
+	private static ExecutorService executor = null;
+
+	private static ExecutorService prefetchExecutor = null;
+
+	private static ScheduledExecutorService scheduler = null;
+
+	private static ExecutorService discoverExecutor = null;
+
+	private static ExecutorService indexExecutor = null;
+
+	private static final ConcurrentMap<String, Semaphore> connectionLimits = new ConcurrentHashMap<String, Semaphore>();
+
+	private QueryExecutorPool() {
+	}
+
+	public static synchronized ExecutorService getExecutor() {
+		if (executor == null) {
+			int threads = Math.max(1, SaikuProperties.olapParallelThreads);
+			executor = Executors.newFixedThreadPool(threads, new DaemonThreadFactory("saiku-query-", Thread.NORM_PRIORITY));
+		}
+		return executor;
+	}
+
+	/**
+	 * Returns the executor for speculative background work. It runs a single low priority thread
+	 * and only keeps the most recent tasks, older ones are discarded if it can't keep up.
+	 */
+	public static synchronized ExecutorService getPrefetchExecutor() {
+		if (prefetchExecutor == null) {
+			prefetchExecutor = new ThreadPoolExecutor(1, 1, 0L, TimeUnit.MILLISECONDS, 
+					new ArrayBlockingQueue<Runnable>(PREFETCH_QUEUE_SIZE), 
+					new DaemonThreadFactory("saiku-prefetch-", Thread.MIN_PRIORITY),
+					new ThreadPoolExecutor.DiscardOldestPolicy());
+		}
+		return prefetchExecutor;
+	}
+
+	/**
+	 * Returns a single thread scheduler for periodic housekeeping, e.g. closing idle drillthrough cursors.
+	 */
+	public static synchronized ScheduledExecutorService getScheduler() {
+		if (scheduler == null) {
+			scheduler = Executors.newSingleThreadScheduledExecutor(new DaemonThreadFactory("saiku-scheduler-", Thread.NORM_PRIORITY));
+		}
+		return scheduler;
+	}
+
+	/**
+	 * Returns the executor for metadata discovery of several connections in parallel. It starts every task
+	 * right away, so a connection that hangs does not hold up the others. The number of threads is bounded
+	 * by the number of connections, as {@link org.saiku.olap.discover.OlapMetaExplorer} runs one discovery
+	 * per connection at a time.
+	 */
+	public static synchronized ExecutorService getDiscoverExecutor() {
+		if (discoverExecutor == null) {
+			discoverExecutor = Executors.newCachedThreadPool(new DaemonThreadFactory("saiku-discover-", Thread.NORM_PRIORITY));
+		}
+		return discoverExecutor;
+	}
+
+	/**
+	 * Returns the executor that builds member search indexes, a single low priority thread.
+	 * Unlike the prefetch executor it keeps all tasks.
+	 */
+	public static synchronized ExecutorService getIndexExecutor() {
+		if (indexExecutor == null) {
+			indexExecutor = Executors.newSingleThreadExecutor(new DaemonThreadFactory("saiku-member-index-", Thread.MIN_PRIORITY));
+		}
+		return indexExecutor;
+	}
+
+	public static Semaphore getConnectionLimit(String connectionName) {
+		Semaphore limit = connectionLimits.get(connectionName);
+		if (limit == null) {
+			limit = new Semaphore(Math.max(1, SaikuProperties.olapParallelConnectionLimit), true);
+			Semaphore existing = connectionLimits.putIfAbsent(connectionName, limit);
+			if (existing != null) {
+				limit = existing;
+			}
+		}
+		return limit;
+	}
+
+	private static class DaemonThreadFactory implements ThreadFactory {
+		private final AtomicInteger count = new AtomicInteger(0);
+		private final String prefix;
+		private final int priority;
+
+		DaemonThreadFactory(String prefix, int priority) {
+			this.prefix = prefix;
+			this.priority = priority;
+		}
+
+		public Thread newThread(Runnable r) {
+			Thread t = new Thread(r, prefix + count.incrementAndGet());
+			t.setDaemon(true);
+			t.setPriority(priority);
+			return t;
+		}
+	}
+
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.service.util;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.sql.Types;
+
+/**
+ * Reads rows of a JDBC result set with typed getters, so numbers and dates are not converted to text.
+ */
+public class ResultSetUtil {
+
+	/**
+	 * The value types a column is mapped to.
+	 */
+	public enum ColumnType {
+		INTEGER,
+		NUMBER,
+		DATE,
+		BOOLEAN,
+		STRING
+	}
+
+	private ResultSetUtil() {
+	}
+
+	public static String[] getColumnNames(ResultSetMetaData meta) throws SQLException {
+		String[] names = new String[meta.getColumnCount()];
+		for (int i = 0; i < names.length; i++) {
+			names[i] = meta.getColumnName(i + 1);
+		}
+		return names;
+	}
+
+	public static ColumnType[] getColumnTypes(ResultSetMetaData meta) throws SQLException {
+		ColumnType[] types = new ColumnType[meta.getColumnCount()];
+		for (int i = 0; i < types.length; i++) {
+			types[i] = getColumnType(meta.getColumnType(i + 1), meta.getPrecision(i + 1), meta.getScale(i + 1));
+		}
+		return types;
+	}
+
+	/**
+	 * NUMERIC and DECIMAL columns are only read as integers if they have no scale and at most 18 digits, which fit
+	 * into a long. Drivers report a precision of 0 for unconstrained numbers (e.g. Oracle NUMBER), those may have decimals.
+	 */
+	private static ColumnType getColumnType(int sqlType, int precision, int scale) {
+		switch (sqlType) {
+		case Types.TINYINT:
+		case Types.SMALLINT:
+		case Types.INTEGER:
+		case Types.BIGINT:
+			return ColumnType.INTEGER;
+		case Types.NUMERIC:
+		case Types.DECIMAL:
+			return scale == 0 && precision > 0 && precision <= 18 ? ColumnType.INTEGER : ColumnType.NUMBER;
+		case Types.REAL:
+		case Types.FLOAT:
+		case Types.DOUBLE:
+			return ColumnType.NUMBER;
+		case Types.DATE:
+		case Types.TIME:
+		case Types.TIMESTAMP:
+			return ColumnType.DATE;
+		case Types.BIT:
+		case Types.BOOLEAN:
+			return ColumnType.BOOLEAN;
+		default:
+			return ColumnType.STRING;
+		}
+	}
+
+	/**
+	 * Reads the current row. Values are Long, Double, java.sql.Timestamp, Boolean or String depending
+	 * on the column type, SQL NULL is returned as null.
+	 */
+	public static Object[] readRow(ResultSet rs, ColumnType[] types) throws SQLException {
+		Object[] row = new Object[types.length];
+		for (int i = 0; i < types.length; i++) {
+			int column = i + 1;
+			switch (types[i]) {
+			case INTEGER:
+				long l = rs.getLong(column);
+				row[i] = rs.wasNull() ? null : Long.valueOf(l);
+				break;
+			case NUMBER:
+				double d = rs.getDouble(column);
+				row[i] = rs.wasNull() ? null : Double.valueOf(d);
+				break;
+			case DATE:
+				row[i] = rs.getTimestamp(column);
+				break;
+			case BOOLEAN:
+				boolean b = rs.getBoolean(column);
+				row[i] = rs.wasNull() ? null : Boolean.valueOf(b);
+				break;
+			default:
+				row[i] = rs.getString(column);
+			}
+		}
+		return row;
+	}
+}
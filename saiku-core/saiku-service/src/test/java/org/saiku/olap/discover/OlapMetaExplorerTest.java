@@ -8,6 +8,7 @@ import java.io.InputStream;
 import java.net.URL;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import org.apache.commons.vfs.FileObject;
@@ -16,9 +17,13 @@ import org.apache.commons.vfs.FileUtil;
 import org.junit.BeforeClass;
 import org.junit.Test;
 import org.olap4j.OlapConnection;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.metadata.Hierarchy;
+import org.olap4j.metadata.Member;
 import org.saiku.AbstractServiceUtils;
 import org.saiku.TConnectionManager;
 import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.connection.ISaikuConnection;
 import org.saiku.datasources.datasource.SaikuDatasource;
 import org.saiku.olap.dto.SaikuConnection;
 import org.saiku.olap.dto.SaikuCube;
@@ -26,6 +31,9 @@ import org.saiku.olap.dto.SaikuDimension;
 import org.saiku.olap.dto.SaikuHierarchy;
 import org.saiku.olap.dto.SaikuLevel;
 import org.saiku.olap.dto.SaikuMember;
+import org.saiku.olap.util.ObjectUtil;
+import org.saiku.olap.util.SaikuProperties;
+import org.saiku.olap.util.exception.MemberListLimitException;
 import org.saiku.olap.util.exception.SaikuOlapException;
 import org.saiku.service.datasource.ClassPathResourceDatasourceManager;
 import org.saiku.service.datasource.IDatasourceManager;
@@ -35,6 +43,7 @@ public class OlapMetaExplorerTest {
 
     private static OlapMetaExplorer olapMetaExplorer;
     private static Properties testProps = new Properties();
+    private static IDatasourceManager datasourceManager;
     
     /**
      * Test that you can fetch all available connections.
@@ -205,6 +214,24 @@ public class OlapMetaExplorerTest {
         assertEquals(7, dims.size());
     }
     
+    /**
+     * Test that hierarchies are converted shallow unless levels or root members are requested.
+     * @throws SaikuOlapException
+     */
+    @Test
+    public final void testGetAllDimensionsExpand() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+
+        SaikuHierarchy shallow = olapMetaExplorer.getAllDimensions(cube).get(0).getHierarchies().get(0);
+        assertNull(shallow.getLevels());
+        assertNull(shallow.getRootMembers());
+
+        SaikuHierarchy expanded = olapMetaExplorer.getAllDimensions(cube, true, true).get(0).getHierarchies().get(0);
+        assertNotNull(expanded.getLevels());
+        assertFalse(expanded.getLevels().isEmpty());
+        assertNotNull(expanded.getRootMembers());
+    }
+    
     /**
      * Test to make sure you can get a single dimension in a cube.
      * @throws SaikuOlapException
@@ -233,6 +260,50 @@ public class OlapMetaExplorerTest {
         assertNull(dim);
         }
     
+    /**
+     * Test that converted metadata is served from the cache until the connection is invalidated.
+     * @throws SaikuOlapException
+     */
+    @Test
+    public final void testMetadataCache() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        OlapMetadataCache cache = olapMetaExplorer.getMetadataCache();
+        cache.invalidate("test");
+
+        List<SaikuDimension> first = olapMetaExplorer.getAllDimensions(cube);
+        long hits = (Long) cache.getStatistics().get("hits");
+        List<SaikuDimension> second = olapMetaExplorer.getAllDimensions(cube);
+
+        assertEquals(hits + 1, cache.getStatistics().get("hits"));
+        assertEquals(first.size(), second.size());
+        assertSame(first.get(0), second.get(0));
+
+        cache.invalidate("test");
+        List<SaikuDimension> third = olapMetaExplorer.getAllDimensions(cube);
+
+        assertEquals(first.size(), third.size());
+        assertNotSame(first.get(0), third.get(0));
+    }
+    
+    @Test
+    public final void testRestoredMetadataWithoutConnection() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        List<SaikuDimension> dimensions = olapMetaExplorer.getAllDimensions(cube);
+        Map<String, Object> entries = olapMetaExplorer.getMetadataCache().getEntries(cube.getConnectionName());
+        olapMetaExplorer.getMetadataCache().invalidate(cube.getConnectionName());
+        olapMetaExplorer.getMetadataCache().putAll(cube.getConnectionName(), entries);
+
+        // a connection manager that has not opened its connection yet, as during the warm-up from a snapshot
+        IConnectionManager closed = new TConnectionManager() {
+            @Override
+            protected ISaikuConnection getInternalConnection(String name, SaikuDatasource datasource) {
+                throw new IllegalStateException("Connection " + name + " is not open yet");
+            }
+        };
+        closed.setDataSourceManager(datasourceManager);
+        assertEquals(dimensions, new OlapMetaExplorer(closed).getAllDimensions(cube));
+    }
+
     @Test
     public final void testGetAllHierarchies() throws SaikuOlapException{
         
@@ -276,6 +347,16 @@ public class OlapMetaExplorerTest {
         
         assertEquals(2, levels.size());
     }
+
+    @Test
+    public final void testLevelCardinality() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        assertEquals(12, olapMetaExplorer.getLevelCardinality(cube, "Department", "Department", "Department Description"));
+
+        Map<String, Integer> levels = olapMetaExplorer.getLevelCardinalities(cube, "Department", "[Department]");
+        assertEquals(2, levels.size());
+        assertEquals(Integer.valueOf(12), levels.get("[Department].[Department Description]"));
+    }
     
     @Test
     public final void testGetAllMembers() throws SaikuOlapException{
@@ -286,6 +367,90 @@ public class OlapMetaExplorerTest {
     	assertEquals(12, members.size());
     }
     
+    @Test
+    public final void testGetAllMembersPaged() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        List<SaikuMember> all = olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description");
+        List<SaikuMember> page = olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description", null, false, 2, 5);
+
+        assertEquals(5, page.size());
+        for (int i = 0; i < page.size(); i++) {
+            assertEquals(all.get(i + 2).getUniqueName(), page.get(i).getUniqueName());
+        }
+        assertEquals(12, olapMetaExplorer.getMemberCount(cube, "Department", "Department", "Department Description", null, false));
+    }
+
+    @Test
+    public final void testSearchMembers() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        List<SaikuMember> all = olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description");
+        String search = all.get(0).getCaption().substring(0, 2).toLowerCase();
+        int expected = 0;
+        for (SaikuMember member : all) {
+            if (member.getCaption().toLowerCase().startsWith(search)) {
+                expected++;
+            }
+        }
+
+        List<SaikuMember> members = olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description", search, true, 0, 0);
+
+        assertEquals(expected, members.size());
+        for (SaikuMember member : members) {
+            assertTrue(member.getCaption().toLowerCase().startsWith(search));
+        }
+        assertEquals(expected, olapMetaExplorer.getMemberCount(cube, "Department", "Department", "Department Description", search, true));
+    }
+    
+    @Test
+    public final void testMemberSearchIndex() throws Exception{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        Hierarchy hierarchy = olapMetaExplorer.getNativeCube(cube).getHierarchies().get("Department");
+        MemberSearchIndex index = MemberSearchIndex.build(null, hierarchy);
+        String level = hierarchy.getLevels().get(1).getUniqueName();
+
+        List<SaikuMember> all = index.search(level, null, false, 0, 0);
+        assertEquals(12, all.size());
+        assertEquals(12, index.count(level, "", false));
+
+        String search = all.get(0).getCaption().substring(1, 4).toUpperCase();
+        List<SaikuMember> expected = olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description", search, false, 0, 0);
+        List<SaikuMember> found = index.search(level, search, false, 0, 0);
+        assertEquals(expected.size(), found.size());
+        for (int i = 0; i < found.size(); i++) {
+            assertEquals(expected.get(i).getUniqueName(), found.get(i).getUniqueName());
+        }
+        assertEquals(0, index.count(level, "no such member", false));
+    }
+
+    @Test
+    public final void testMemberListLimit() throws Exception{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        Hierarchy hierarchy = olapMetaExplorer.getNativeCube(cube).getHierarchies().get("Department");
+        olapMetaExplorer.setMemberListLimit(5);
+        try {
+            assertEquals(5, olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description", null, false, 0, 5).size());
+            try {
+                olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description");
+                fail("Listing 12 members with a limit of 5 should fail");
+            } catch (MemberListLimitException e) {
+                // expected
+            }
+
+            MemberSearchIndexes.getInstance().put(cube.getConnectionName(), cube.getCatalogName(), cube.getSchemaName(),
+                    cube.getName(), hierarchy.getUniqueName(), MemberSearchIndex.build(null, hierarchy));
+            assertEquals(5, olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description", null, false, 0, 5).size());
+            try {
+                olapMetaExplorer.getAllMembers(cube, "Department", "Department", "Department Description");
+                fail("Listing 12 indexed members with a limit of 5 should fail");
+            } catch (MemberListLimitException e) {
+                // expected
+            }
+        } finally {
+            olapMetaExplorer.setMemberListLimit(SaikuProperties.olapMemberListLimit);
+            MemberSearchIndexes.getInstance().invalidate(cube.getConnectionName());
+        }
+    }
+    
     @Test
     public final void testGetMemeberChildren() throws SaikuOlapException{
 
@@ -295,6 +460,59 @@ public class OlapMetaExplorerTest {
     	
     	assertEquals(12, members.size());
     }
+
+    @Test
+    public final void testGetMemberChildrenBulk() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        List<String> names = new ArrayList<String>();
+        names.add("[Department].[All Departments]");
+        names.add("[Pay Type].[All Pay Types]");
+        names.add("[Department].[No Such Department]");
+        names.add("[Department].[all departments]");
+        names.add("[Department].[All Departments]");
+
+        Map<String, List<SaikuMember>> children = olapMetaExplorer.getMemberChildren(cube, names);
+
+        assertEquals(4, children.size());
+        assertEquals(12, children.get("[Department].[All Departments]").size());
+        assertEquals(12, children.get("[Department].[all departments]").size());
+        List<SaikuMember> payTypes = olapMetaExplorer.getMemberChildren(cube, "[Pay Type].[All Pay Types]");
+        assertFalse(payTypes.isEmpty());
+        assertEquals(payTypes, children.get("[Pay Type].[All Pay Types]"));
+        assertEquals(0, children.get("[Department].[No Such Department]").size());
+    }
+
+    @Test
+    public final void testMemberConversionCache() throws SaikuOlapException{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        List<SaikuMember> first = olapMetaExplorer.getMemberChildren(cube, "[Department].[All Departments]");
+        List<SaikuMember> second = olapMetaExplorer.getMemberChildren(cube, "[Department].[All Departments]");
+        assertEquals(12, first.size());
+        for (int i = 0; i < first.size(); i++) {
+            assertSame(first.get(i), second.get(i));
+        }
+
+        olapMetaExplorer.getMetadataCache().invalidate(cube.getConnectionName());
+        List<SaikuMember> third = olapMetaExplorer.getMemberChildren(cube, "[Department].[All Departments]");
+        assertEquals(first, third);
+        assertNotSame(first.get(0), third.get(0));
+    }
+
+    @Test
+    public final void testMemberConversionCacheKey() throws Exception{
+        SaikuCube cube = olapMetaExplorer.getAllCubes().get(0);
+        Member member = olapMetaExplorer.getNativeCube(cube).lookupMember(
+                IdentifierNode.parseIdentifier("[Department].[All Departments]").getSegmentList());
+        SaikuMember converted = ObjectUtil.convert(cube, member);
+
+        SaikuCube byName = new SaikuCube(cube.getConnectionName(), cube.getName(), cube.getName(),
+                cube.getCatalogName(), cube.getSchemaName());
+        assertSame(converted, ObjectUtil.convert(byName, member));
+
+        SaikuCube otherCatalog = new SaikuCube(cube.getConnectionName(), cube.getCubeName(), cube.getName(),
+                cube.getCatalogName() + " 2", cube.getSchemaName());
+        assertNotSame(converted, ObjectUtil.convert(otherCatalog, member));
+    }
     
     @Test
     public final void testGetAllMeasures() throws SaikuOlapException{
@@ -353,6 +571,7 @@ public static void setup() throws IOException{
     }
     ds.setDatasource(new SaikuDatasource("test", SaikuDatasource.Type.OLAP, testProps));
     ic.setDataSourceManager(ds);
+    datasourceManager = ds;
     olapMetaExplorer = new OlapMetaExplorer(ic);
 
 }
@@ -0,0 +1,54 @@
+package org.saiku.olap.discover;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+import org.junit.Test;
+import org.saiku.olap.dto.SaikuCatalog;
+import org.saiku.olap.dto.SaikuConnection;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.dto.SaikuSchema;
+
+public class OlapMetadataSnapshotTest {
+
+    @Test
+    public final void testWriteAndRead() throws Exception {
+        File file = File.createTempFile("saiku-metadata", ".snapshot");
+        file.deleteOnExit();
+
+        Properties props = new Properties();
+        props.setProperty("location", "jdbc:mondrian:Jdbc=jdbc:hsqldb:mem:test;Catalog=/no/such/schema.xml");
+        String fingerprint = OlapMetadataSnapshot.fingerprint(props);
+
+        List<SaikuCube> cubes = new ArrayList<SaikuCube>();
+        cubes.add(new SaikuCube("test", "[Sales]", "Sales", "FoodMart", "FoodMart"));
+        List<SaikuSchema> schemas = new ArrayList<SaikuSchema>();
+        schemas.add(new SaikuSchema("FoodMart", cubes));
+        List<SaikuCatalog> catalogs = new ArrayList<SaikuCatalog>();
+        catalogs.add(new SaikuCatalog("FoodMart", schemas));
+        Map<String, Object> metadata = new HashMap<String, Object>();
+        metadata.put("null|FoodMart|FoodMart|Sales|measures", new ArrayList<String>());
+
+        OlapMetadataSnapshot snapshot = new OlapMetadataSnapshot();
+        snapshot.put("test", fingerprint, new SaikuConnection("test", catalogs), metadata);
+        snapshot.write(file);
+
+        OlapMetadataSnapshot read = OlapMetadataSnapshot.read(file);
+        assertNotNull(read);
+        SaikuConnection connection = read.getConnection("test", fingerprint);
+        assertNotNull(connection);
+        assertEquals("Sales", connection.getCatalogs().get(0).getSchemas().get(0).getCubes().get(0).getName());
+        assertEquals(1, read.getMetadata("test", fingerprint).size());
+
+        props.setProperty("username", "changed");
+        assertNull(read.getConnection("test", OlapMetadataSnapshot.fingerprint(props)));
+        assertTrue(read.getConnectionNames().isEmpty());
+    }
+
+}
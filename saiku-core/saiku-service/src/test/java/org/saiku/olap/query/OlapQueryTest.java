@@ -0,0 +1,167 @@
+package org.saiku.olap.query;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.olap4j.Axis;
+import org.olap4j.OlapConnection;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Member;
+import org.olap4j.query.Query;
+import org.olap4j.query.QueryAxis;
+import org.olap4j.query.QueryDimension;
+import org.olap4j.query.Selection;
+import org.olap4j.query.SortOrder;
+import org.saiku.AbstractServiceUtils;
+import org.saiku.TConnectionManager;
+import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.discover.OlapMetaExplorer;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.service.datasource.ClassPathResourceDatasourceManager;
+import org.saiku.service.datasource.IDatasourceManager;
+
+/**
+ * Checks that {@link OlapQuery#copy()} creates an equal but independent query.
+ */
+public class OlapQueryTest {
+
+    private static OlapConnection connection;
+    private static Cube cube;
+    private static SaikuCube saikuCube;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        AbstractServiceUtils ast = new AbstractServiceUtils();
+        ast.initTestContext();
+        IConnectionManager ic = new TConnectionManager();
+        File f = new File(System.getProperty("java.io.tmpdir")+"/files/");
+        f.mkdir();
+        IDatasourceManager ds = new ClassPathResourceDatasourceManager(System.getProperty("java.io.tmpdir")+"/files/");
+        Properties testProps = new Properties();
+        InputStream inputStream = AbstractServiceUtils.class.getResourceAsStream("connection.properties");
+        testProps.load(inputStream);
+        ds.setDatasource(new SaikuDatasource("test", SaikuDatasource.Type.OLAP, testProps));
+        ic.setDataSourceManager(ds);
+        connection = new OlapMetaExplorer(ic).getNativeConnection("test");
+        cube = connection.getOlapSchema().getCubes().get("Sales");
+        saikuCube = new SaikuCube("test", cube.getUniqueName(), cube.getName(),
+                connection.getOlapCatalog().getName(), connection.getOlapSchema().getName());
+    }
+
+    @Test
+    public final void testCopyHasSameAxes() throws Exception {
+        OlapQuery original = createQuery();
+        IQuery copy = original.copy();
+
+        for (Axis axis : new Axis[] { Axis.ROWS, Axis.COLUMNS, Axis.FILTER }) {
+            QueryAxis source = original.getAxis(axis);
+            QueryAxis target = copy.getAxis(axis);
+            assertEquals(source.isNonEmpty(), target.isNonEmpty());
+            assertEquals(source.getSortOrder(), target.getSortOrder());
+            assertEquals(source.getSortIdentifierNodeName(), target.getSortIdentifierNodeName());
+            assertEquals(dimensionNames(source), dimensionNames(target));
+        }
+        assertEquals(original.getMdx(), copy.getMdx());
+        assertEquals(original.toXml(), copy.toXml());
+    }
+
+    @Test
+    public final void testCopyHasSameSelections() throws Exception {
+        OlapQuery original = createQuery();
+        IQuery copy = original.copy();
+
+        QueryDimension source = original.getDimension("Product");
+        QueryDimension target = copy.getDimension("Product");
+        assertNotSame(source, target);
+        assertEquals(source.getHierarchizeMode(), target.getHierarchizeMode());
+        assertEquals(source.isHierarchyConsistent(), target.isHierarchyConsistent());
+        assertEquals(describe(source.getInclusions()), describe(target.getInclusions()));
+        assertEquals(describe(source.getExclusions()), describe(target.getExclusions()));
+
+        Selection drink = target.getInclusions().get(2);
+        assertEquals(1, drink.getSelectionContext().size());
+        assertEquals("[Gender].[F]", drink.getSelectionContext().get(0).getUniqueName());
+    }
+
+    @Test
+    public final void testChangingCopyKeepsOriginal() throws Exception {
+        OlapQuery original = createQuery();
+        String mdx = original.getMdx();
+        String xml = original.toXml();
+        IQuery copy = original.copy();
+
+        copy.getDimension("Product").clearInclusions();
+        copy.getDimension("Product").clearExclusions();
+        copy.moveDimension(copy.getDimension("Time"), null);
+        copy.getAxis(Axis.ROWS).setNonEmpty(false);
+        copy.getDimension("Measures").include(member("[Measures].[Store Cost]"));
+
+        assertFalse(mdx.equals(copy.getMdx()));
+        assertEquals(mdx, original.getMdx());
+        assertEquals(xml, original.toXml());
+        assertEquals(3, original.getDimension("Product").getInclusions().size());
+        assertEquals(1, original.getAxis(Axis.FILTER).getDimensions().size());
+    }
+
+    private static OlapQuery createQuery() throws Exception {
+        Query query = new Query("copy", cube);
+
+        QueryDimension measures = query.getDimension("Measures");
+        measures.include(member("[Measures].[Unit Sales]"));
+        measures.include(member("[Measures].[Store Sales]"));
+        query.getAxis(Axis.COLUMNS).addDimension(measures);
+
+        QueryDimension product = query.getDimension("Product");
+        product.include(cube.getDimensions().get("Product").getDefaultHierarchy().getLevels().get("Product Family"));
+        product.include(Selection.Operator.CHILDREN, member("[Product].[Food]"));
+        product.exclude(member("[Product].[Non-Consumable]"));
+        Selection drink = product.createSelection(Selection.Operator.CHILDREN,
+                IdentifierNode.parseIdentifier("[Product].[Drink]").getSegmentList());
+        drink.addContext(query.getDimension("Gender").createSelection(IdentifierNode.parseIdentifier("[Gender].[F]")));
+        product.getInclusions().add(drink);
+        product.setHierarchizeMode(QueryDimension.HierarchizeMode.PRE);
+        product.setHierarchyConsistent(true);
+        query.getAxis(Axis.ROWS).addDimension(product);
+        query.getAxis(Axis.ROWS).setNonEmpty(true);
+        query.getAxis(Axis.ROWS).sort(SortOrder.BDESC, member("[Measures].[Unit Sales]"));
+
+        QueryDimension time = query.getDimension("Time");
+        time.include(member("[Time].[1997].[Q1]"));
+        query.getAxis(Axis.FILTER).addDimension(time);
+
+        return new OlapQuery(query, connection, saikuCube, false);
+    }
+
+    private static List<String> dimensionNames(QueryAxis axis) {
+        List<String> names = new ArrayList<String>();
+        for (QueryDimension dim : axis.getDimensions()) {
+            names.add(dim.getName());
+        }
+        return names;
+    }
+
+    private static List<String> describe(List<Selection> selections) {
+        List<String> descriptions = new ArrayList<String>();
+        for (Selection sel : selections) {
+            String description = sel.getUniqueName() + " " + sel.getOperator();
+            if (sel.getSelectionContext() != null) {
+                description += " " + describe(sel.getSelectionContext());
+            }
+            descriptions.add(description);
+        }
+        return descriptions;
+    }
+
+    private static Member member(String uniqueName) throws Exception {
+        return cube.lookupMember(IdentifierNode.parseIdentifier(uniqueName).getSegmentList());
+    }
+}
@@ -0,0 +1,133 @@
+package org.saiku.olap.query;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.StringWriter;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.olap4j.Axis;
+import org.olap4j.OlapConnection;
+import org.olap4j.mdx.IdentifierNode;
+import org.olap4j.metadata.Cube;
+import org.olap4j.metadata.Member;
+import org.olap4j.query.Query;
+import org.olap4j.query.QueryDimension;
+import org.olap4j.query.Selection;
+import org.olap4j.query.SortOrder;
+import org.saiku.AbstractServiceUtils;
+import org.saiku.TConnectionManager;
+import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.discover.OlapMetaExplorer;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.service.datasource.ClassPathResourceDatasourceManager;
+import org.saiku.service.datasource.IDatasourceManager;
+
+/**
+ * Checks that queries written by {@link QuerySerializer} are read back by {@link QueryDeserializer}
+ * into the same query.
+ */
+public class QuerySerializerTest {
+
+    private static OlapConnection connection;
+    private static Cube cube;
+    private static SaikuCube saikuCube;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        AbstractServiceUtils ast = new AbstractServiceUtils();
+        ast.initTestContext();
+        IConnectionManager ic = new TConnectionManager();
+        File f = new File(System.getProperty("java.io.tmpdir")+"/files/");
+        f.mkdir();
+        IDatasourceManager ds = new ClassPathResourceDatasourceManager(System.getProperty("java.io.tmpdir")+"/files/");
+        Properties testProps = new Properties();
+        InputStream inputStream = AbstractServiceUtils.class.getResourceAsStream("connection.properties");
+        testProps.load(inputStream);
+        ds.setDatasource(new SaikuDatasource("test", SaikuDatasource.Type.OLAP, testProps));
+        ic.setDataSourceManager(ds);
+        connection = new OlapMetaExplorer(ic).getNativeConnection("test");
+        cube = connection.getOlapSchema().getCubes().get("Sales");
+        saikuCube = new SaikuCube("test", cube.getUniqueName(), cube.getName(),
+                connection.getOlapCatalog().getName(), connection.getOlapSchema().getName());
+    }
+
+    @Test
+    public final void testQueryModelRoundTrip() throws Exception {
+        Query query = new Query("roundtrip", cube);
+
+        QueryDimension measures = query.getDimension("Measures");
+        measures.include(member("[Measures].[Unit Sales]"));
+        measures.include(member("[Measures].[Store Sales]"));
+        query.getAxis(Axis.COLUMNS).addDimension(measures);
+
+        QueryDimension product = query.getDimension("Product");
+        product.include(cube.getDimensions().get("Product").getDefaultHierarchy().getLevels().get("Product Family"));
+        product.exclude(member("[Product].[Non-Consumable]"));
+        Selection drink = product.createSelection(Selection.Operator.CHILDREN,
+                IdentifierNode.parseIdentifier("[Product].[Drink]").getSegmentList());
+        drink.addContext(query.getDimension("Gender").createSelection(IdentifierNode.parseIdentifier("[Gender].[F]")));
+        product.getInclusions().add(drink);
+        product.setHierarchizeMode(QueryDimension.HierarchizeMode.PRE);
+        product.setHierarchyConsistent(true);
+        query.getAxis(Axis.ROWS).addDimension(product);
+        query.getAxis(Axis.ROWS).setNonEmpty(true);
+        query.getAxis(Axis.ROWS).sort(SortOrder.BDESC, member("[Measures].[Unit Sales]"));
+
+        QueryDimension time = query.getDimension("Time");
+        time.include(member("[Time].[1997].[Q1]"));
+        query.getAxis(Axis.FILTER).addDimension(time);
+
+        OlapQuery olapQuery = new OlapQuery(query, connection, saikuCube, false);
+        String xml = olapQuery.toXml();
+
+        IQuery restored = QueryDeserializer.unparse(xml, connection);
+
+        assertEquals(IQuery.QueryType.QM, restored.getType());
+        assertEquals("roundtrip", restored.getName());
+        assertEquals(olapQuery.getMdx(), restored.getMdx());
+        assertEquals(xml, restored.toXml());
+    }
+
+    @Test
+    public final void testEmptyQueryModelRoundTrip() throws Exception {
+        OlapQuery olapQuery = new OlapQuery(new Query("empty", cube), connection, saikuCube, false);
+        String xml = olapQuery.toXml();
+
+        IQuery restored = QueryDeserializer.unparse(xml, connection);
+
+        assertEquals(xml, restored.toXml());
+    }
+
+    @Test
+    public final void testMdxRoundTrip() throws Exception {
+        String mdx = "SELECT {[Measures].[Unit Sales]} ON COLUMNS,\n"
+            + " Filter([Product].[Product Family].Members, [Measures].[Unit Sales] > 100 AND [Measures].[Unit Sales] < 100000) ON ROWS\n"
+            + "FROM [Sales] WHERE [Store].[All Stores].[USA] & \"quoted\"";
+        MdxQuery mdxQuery = new MdxQuery(connection, saikuCube, "mdx", mdx);
+        String xml = mdxQuery.toXml();
+
+        IQuery restored = QueryDeserializer.unparse(xml, connection);
+
+        assertEquals(IQuery.QueryType.MDX, restored.getType());
+        assertEquals(mdx, restored.getMdx());
+        assertEquals(xml, restored.toXml());
+    }
+
+    @Test
+    public final void testWriterMatchesString() throws Exception {
+        MdxQuery mdxQuery = new MdxQuery(connection, saikuCube, "mdx", "SELECT FROM [Sales]");
+        StringWriter writer = new StringWriter();
+        new QuerySerializer(mdxQuery).createXML(writer);
+
+        assertEquals(mdxQuery.toXml(), writer.toString());
+    }
+
+    private static Member member(String uniqueName) throws Exception {
+        return cube.lookupMember(IdentifierNode.parseIdentifier(uniqueName).getSegmentList());
+    }
+}
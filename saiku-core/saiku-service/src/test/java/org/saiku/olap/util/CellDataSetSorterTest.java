@@ -0,0 +1,92 @@
+package org.saiku.olap.util;
+
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+
+import org.junit.Test;
+import org.olap4j.query.SortOrder;
+import org.saiku.olap.dto.resultset.AbstractBaseCell;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.DataCell;
+import org.saiku.olap.dto.resultset.MemberCell;
+
+public class CellDataSetSorterTest {
+
+    /**
+     * Two levels on rows, the outer member is only shown on the first row of its group.
+     */
+    private CellDataSet createResult() {
+        AbstractBaseCell[][] body = new AbstractBaseCell[][] {
+                row("[P].[Drink]", "[P].[Drink].[Beer]", 10d),
+                row(null, "[P].[Drink].[Wine]", 30d),
+                row(null, "[P].[Drink].[Water]", null),
+                row("[P].[Food]", "[P].[Food].[Bread]", 20d),
+                row(null, "[P].[Food].[Cake]", 40d)
+        };
+        CellDataSet data = new CellDataSet(3, 6);
+        data.setCellSetHeaders(new AbstractBaseCell[][] { new AbstractBaseCell[] { 
+                new MemberCell(), new MemberCell(), new MemberCell() } });
+        data.setCellSetBody(body);
+        data.setOffset(1);
+        return data;
+    }
+
+    private AbstractBaseCell[] row(String outer, String inner, Double value) {
+        DataCell cell = new DataCell(true, false, Arrays.asList(0, 0));
+        if (value != null) {
+            cell.setRawNumber(value);
+        }
+        return new AbstractBaseCell[] { member(outer), member(inner), cell };
+    }
+
+    private MemberCell member(String uniqueName) {
+        MemberCell cell = new MemberCell();
+        if (uniqueName != null) {
+            cell.setUniquename(uniqueName);
+            cell.setRawValue(uniqueName);
+            cell.setFormattedValue(uniqueName.substring(uniqueName.lastIndexOf('[') + 1, uniqueName.length() - 1));
+        }
+        return cell;
+    }
+
+    private String[] innerMembers(CellDataSet result) {
+        String[] names = new String[result.getCellSetBody().length];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = result.getCellSetBody()[i][1].getFormattedValue();
+        }
+        return names;
+    }
+
+    @Test
+    public final void testSortKeepsHierarchy() {
+        CellDataSet result = CellDataSetSorter.sort(createResult(), 2, SortOrder.DESC, 0);
+
+        assertArrayEquals(new String[] { "Wine", "Beer", "Water", "Cake", "Bread" }, innerMembers(result));
+        assertEquals("Drink", result.getCellSetBody()[0][0].getFormattedValue());
+        assertEquals("Drink", result.getCellSetBody()[1][0].getFormattedValue());
+    }
+
+    @Test
+    public final void testSortBreaksHierarchy() {
+        CellDataSet result = CellDataSetSorter.sort(createResult(), 2, SortOrder.BDESC, 0);
+
+        assertArrayEquals(new String[] { "Cake", "Wine", "Bread", "Beer", "Water" }, innerMembers(result));
+        assertEquals("Food", result.getCellSetBody()[0][0].getFormattedValue());
+    }
+
+    @Test
+    public final void testSortByHeaderAndLimit() {
+        CellDataSet result = CellDataSetSorter.sort(createResult(), 1, SortOrder.BASC, 2);
+
+        assertArrayEquals(new String[] { "Beer", "Bread" }, innerMembers(result));
+        assertEquals(3, result.getHeight());
+    }
+
+    @Test
+    public final void testTopPerParent() {
+        CellDataSet result = CellDataSetSorter.sort(createResult(), 2, SortOrder.DESC, 1);
+
+        assertArrayEquals(new String[] { "Wine", "Cake" }, innerMembers(result));
+    }
+}
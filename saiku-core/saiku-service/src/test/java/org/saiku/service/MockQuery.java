@@ -181,4 +181,19 @@ public class MockQuery implements IQuery {
 
 	}
 
+	public int getVersion() {
+		// TODO Auto-generated method stub
+		return 0;
+	}
+
+	public void invalidate() {
+		// TODO Auto-generated method stub
+
+	}
+
+	public IQuery copy() throws SaikuOlapException {
+		// TODO Auto-generated method stub
+		return null;
+	}
+
 }
@@ -0,0 +1,92 @@
+package org.saiku.service.olap;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.InputStream;
+import java.util.Properties;
+
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.saiku.AbstractServiceUtils;
+import org.saiku.TConnectionManager;
+import org.saiku.datasources.connection.IConnectionManager;
+import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.dto.SaikuCube;
+import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.service.datasource.ClassPathResourceDatasourceManager;
+import org.saiku.service.datasource.DatasourceService;
+import org.saiku.service.datasource.IDatasourceManager;
+
+/**
+ * Checks that swapping the axes the way the query resource does it pivots the last result in memory.
+ */
+public class OlapQueryServiceTest {
+
+    private static OlapQueryService olapQueryService;
+    private static SaikuCube cube;
+
+    @BeforeClass
+    public static void setup() throws Exception {
+        AbstractServiceUtils ast = new AbstractServiceUtils();
+        ast.initTestContext();
+        IConnectionManager ic = new TConnectionManager();
+        File f = new File(System.getProperty("java.io.tmpdir")+"/files/");
+        f.mkdir();
+        IDatasourceManager ds = new ClassPathResourceDatasourceManager(System.getProperty("java.io.tmpdir")+"/files/");
+        Properties testProps = new Properties();
+        InputStream inputStream = AbstractServiceUtils.class.getResourceAsStream("connection.properties");
+        testProps.load(inputStream);
+        ds.setDatasource(new SaikuDatasource("test", SaikuDatasource.Type.OLAP, testProps));
+        ic.setDataSourceManager(ds);
+        DatasourceService datasourceService = new DatasourceService();
+        datasourceService.setConnectionManager(ic);
+        OlapDiscoverService olapDiscoverService = new OlapDiscoverService();
+        olapDiscoverService.setDatasourceService(datasourceService);
+        olapQueryService = new OlapQueryService();
+        olapQueryService.setOlapDiscoverService(olapDiscoverService);
+        for (SaikuCube c : olapDiscoverService.getAllCubes()) {
+            if ("Sales".equals(c.getName())) {
+                cube = c;
+            }
+        }
+    }
+
+    @Test
+    public final void testSwapAxesPivotsResult() {
+        createQuery("pivot");
+        olapQueryService.execute("pivot");
+
+        olapQueryService.clearSort("pivot", "ROWS");
+        olapQueryService.clearSort("pivot", "COLUMNS");
+        olapQueryService.swapAxes("pivot");
+
+        assertTrue(olapQueryService.isPivoted("pivot"));
+        CellDataSet after = olapQueryService.execute("pivot");
+        assertNotNull(after);
+        assertFalse(olapQueryService.isPivoted("pivot"));
+    }
+
+    @Test
+    public final void testSwapAxesAfterSortExecutesQuery() {
+        createQuery("sorted");
+        olapQueryService.sortAxis("sorted", "ROWS", "[Measures].[Unit Sales]", "BDESC");
+        olapQueryService.execute("sorted");
+
+        olapQueryService.clearSort("sorted", "ROWS");
+        olapQueryService.clearSort("sorted", "COLUMNS");
+        olapQueryService.swapAxes("sorted");
+
+        assertFalse(olapQueryService.isPivoted("sorted"));
+    }
+
+    private static void createQuery(String queryName) {
+        assertNotNull(olapQueryService.createNewOlapQuery(queryName, cube));
+        olapQueryService.moveDimension(queryName, "COLUMNS", "Measures", -1);
+        olapQueryService.includeMember(queryName, "Measures", "[Measures].[Unit Sales]", "MEMBER", -1);
+        olapQueryService.includeMember(queryName, "Measures", "[Measures].[Store Sales]", "MEMBER", -1);
+        olapQueryService.moveDimension(queryName, "ROWS", "Gender", -1);
+        olapQueryService.includeMember(queryName, "Gender", "[Gender].[F]", "MEMBER", -1);
+        olapQueryService.includeMember(queryName, "Gender", "[Gender].[M]", "MEMBER", -1);
+    }
+}
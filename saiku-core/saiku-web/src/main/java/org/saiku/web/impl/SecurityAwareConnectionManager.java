@@ -25,6 +25,12 @@ import java.util.Collection;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.locks.ReentrantLock;
+
+import org.apache.commons.lang.StringUtils;
 
 import org.olap4j.OlapConnection;
 import org.olap4j.OlapException;
@@ -32,6 +38,7 @@ import org.saiku.datasources.connection.AbstractConnectionManager;
 import org.saiku.datasources.connection.ISaikuConnection;
 import org.saiku.datasources.connection.SaikuConnectionFactory;
 import org.saiku.datasources.datasource.SaikuDatasource;
+import org.saiku.olap.util.SaikuProperties;
 import org.saiku.service.ISessionService;
 import org.springframework.security.core.GrantedAuthority;
 import org.springframework.security.core.context.SecurityContextHolder;
@@ -43,9 +50,11 @@ public class SecurityAwareConnectionManager extends AbstractConnectionManager im
 	 */
 	private static final long serialVersionUID = -5912836681963684201L;
 
-	private Map<String, ISaikuConnection> connections = new HashMap<String, ISaikuConnection>();
+	private Map<String, ISaikuConnection> connections = new ConcurrentHashMap<String, ISaikuConnection>();
+
+	private CopyOnWriteArrayList<String> errorConnections = new CopyOnWriteArrayList<String>();
 
-	private List<String> errorConnections = new ArrayList<String>();
+	private ConcurrentMap<String, ReentrantLock> connectionLocks = new ConcurrentHashMap<String, ReentrantLock>();
 
 	private ISessionService sessionService;
 
@@ -53,9 +62,15 @@ public class SecurityAwareConnectionManager extends AbstractConnectionManager im
 		this.sessionService = ss;
 	}
 
+	/**
+	 * Connects all datasources, unless a metadata snapshot is configured. Then the discover service
+	 * serves the snapshot and opens the connections in the background.
+	 */
 	@Override
 	public void init() {
-		this.connections = getAllConnections();
+		if (StringUtils.isBlank(SaikuProperties.olapMetadataSnapshot)) {
+			this.connections = new ConcurrentHashMap<String, ISaikuConnection>(getAllConnections());
+		}
 	}
 
 	@Override
@@ -75,21 +90,7 @@ public class SecurityAwareConnectionManager extends AbstractConnectionManager im
 			}
 		}
 
-
-
-		if (!connections.containsKey(newName)) {
-			con =  connect(name, datasource);
-			if (con != null) {
-				connections.put(newName, con);
-			} else {
-				if (!errorConnections.contains(newName)) {
-					errorConnections.add(newName);
-				}
-			}
-
-		} else {
-			con = connections.get(newName);
-		}
+		con = getOrConnect(newName, name, datasource);
 		if (con != null && !isDatasourceSecurity(datasource, ISaikuConnection.SECURITY_TYPE_PASSTHROUGH_VALUE)) {
 			con = applySecurity(con, datasource);
 		}
@@ -254,6 +255,38 @@ public class SecurityAwareConnectionManager extends AbstractConnectionManager im
 	}
 
 
+	/**
+	 * Returns the connection stored under the key or opens it. Only one thread opens a connection
+	 * for a key, the others wait for it and use the same one.
+	 */
+	private ISaikuConnection getOrConnect(String key, String name, SaikuDatasource datasource) {
+		ISaikuConnection con = connections.get(key);
+		if (con != null) {
+			return con;
+		}
+		ReentrantLock lock = new ReentrantLock();
+		ReentrantLock existing = connectionLocks.putIfAbsent(key, lock);
+		if (existing != null) {
+			lock = existing;
+		}
+		lock.lock();
+		try {
+			con = connections.get(key);
+			if (con == null) {
+				con = connect(name, datasource);
+				if (con != null) {
+					connections.put(key, con);
+					errorConnections.remove(key);
+				} else {
+					errorConnections.addIfAbsent(key);
+				}
+			}
+			return con;
+		} finally {
+			lock.unlock();
+		}
+	}
+
 	private ISaikuConnection connect(String name, SaikuDatasource datasource) {
 		try {
 			ISaikuConnection con = SaikuConnectionFactory.getConnection(datasource);
@@ -0,0 +1,156 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.web.rest.objects;
+
+import java.util.List;
+import java.util.Map;
+
+import javax.xml.bind.annotation.XmlAccessType;
+import javax.xml.bind.annotation.XmlAccessorType;
+
+/**
+ * A single edit of a query, as sent to the batch endpoint of the query resource.
+ * Depending on the operation only some of the fields are used.
+ */
+@XmlAccessorType(XmlAccessType.FIELD)
+public class QueryOperationRestObject {
+
+	private String operation;
+	private String axis;
+	private String dimension;
+	private String hierarchy;
+	private String uniquename;
+	private String selection;
+	private Integer position;
+	private Integer memberposition;
+	private String sortorder;
+	private String sortliteral;
+	private Boolean nonempty;
+	private Map<String, String> properties;
+	private List<SelectionRestObject> selections;
+
+	public QueryOperationRestObject() {
+	}
+
+	public String getOperation() {
+		return operation;
+	}
+
+	public String getAxis() {
+		return axis;
+	}
+
+	public String getDimension() {
+		return dimension;
+	}
+
+	public String getHierarchy() {
+		return hierarchy;
+	}
+
+	public String getUniquename() {
+		return uniquename;
+	}
+
+	public String getSelection() {
+		return selection;
+	}
+
+	public Integer getPosition() {
+		return position;
+	}
+
+	public Integer getMemberposition() {
+		return memberposition;
+	}
+
+	public String getSortorder() {
+		return sortorder;
+	}
+
+	public String getSortliteral() {
+		return sortliteral;
+	}
+
+	public Boolean getNonempty() {
+		return nonempty;
+	}
+
+	public Map<String, String> getProperties() {
+		return properties;
+	}
+
+	public List<SelectionRestObject> getSelections() {
+		return selections;
+	}
+
+	public void setOperation(String operation) {
+		this.operation = operation;
+	}
+
+	public void setAxis(String axis) {
+		this.axis = axis;
+	}
+
+	public void setDimension(String dimension) {
+		this.dimension = dimension;
+	}
+
+	public void setHierarchy(String hierarchy) {
+		this.hierarchy = hierarchy;
+	}
+
+	public void setUniquename(String uniquename) {
+		this.uniquename = uniquename;
+	}
+
+	public void setSelection(String selection) {
+		this.selection = selection;
+	}
+
+	public void setPosition(Integer position) {
+		this.position = position;
+	}
+
+	public void setMemberposition(Integer memberposition) {
+		this.memberposition = memberposition;
+	}
+
+	public void setSortorder(String sortorder) {
+		this.sortorder = sortorder;
+	}
+
+	public void setSortliteral(String sortliteral) {
+		this.sortliteral = sortliteral;
+	}
+
+	public void setNonempty(Boolean nonempty) {
+		this.nonempty = nonempty;
+	}
+
+	public void setProperties(Map<String, String> properties) {
+		this.properties = properties;
+	}
+
+	public void setSelections(List<SelectionRestObject> selections) {
+		this.selections = selections;
+	}
+
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.web.rest.objects.resultset;
+
+import org.saiku.olap.dto.SaikuQuery;
+
+/**
+ * Combined response of a batch of query operations: the resulting query and,
+ * if requested, the result of executing it.
+ */
+public class QueryBatchResult {
+
+	private SaikuQuery query;
+	private QueryResult result;
+	private String error;
+
+	public QueryBatchResult(SaikuQuery query, QueryResult result) {
+		this.query = query;
+		this.result = result;
+	}
+
+	public QueryBatchResult(SaikuQuery query, String error) {
+		this.query = query;
+		this.error = error;
+	}
+
+	public SaikuQuery getQuery() {
+		return query;
+	}
+
+	public QueryResult getResult() {
+		return result;
+	}
+
+	public String getError() {
+		return error;
+	}
+
+}
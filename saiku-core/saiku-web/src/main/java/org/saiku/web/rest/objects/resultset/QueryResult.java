@@ -28,6 +28,11 @@ public class QueryResult {
 	private String error;
 	private Integer height;
 	private Integer width;
+	private Boolean truncated;
+	private Long totalCells;
+	private Integer totalRows;
+	private Integer totalColumns;
+	private String warning;
 	
 
 	public QueryResult(List<Cell[]> cellset, int runtime, int width, int height) {
@@ -73,6 +78,32 @@ public class QueryResult {
 		this.width = width;
 	}
 
+	public Boolean getTruncated() {
+		return truncated;
+	}
+
+	public Long getTotalCells() {
+		return totalCells;
+	}
+
+	public Integer getTotalRows() {
+		return totalRows;
+	}
 
+	public Integer getTotalColumns() {
+		return totalColumns;
+	}
+
+	public String getWarning() {
+		return warning;
+	}
+
+	public void setTruncated(Boolean truncated, long totalCells, int totalRows, int totalColumns, String warning) {
+		this.truncated = truncated;
+		this.totalCells = totalCells;
+		this.totalRows = totalRows;
+		this.totalColumns = totalColumns;
+		this.warning = warning;
+	}
 
 }
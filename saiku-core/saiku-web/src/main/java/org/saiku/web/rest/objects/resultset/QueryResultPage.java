@@ -0,0 +1,61 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.web.rest.objects.resultset;
+
+import java.util.List;
+
+/**
+ * A page of a drillthrough read through a cursor.
+ */
+public class QueryResultPage extends TypedQueryResult {
+
+	private String cursor;
+	private Integer offset;
+	private Boolean more;
+
+	public QueryResultPage(String[] columns, String[] types, List<Object[]> rows, String cursor, int offset, boolean more) {
+		super(columns, types, rows);
+		this.cursor = cursor;
+		this.offset = offset;
+		this.more = more;
+	}
+
+	public QueryResultPage(String error) {
+		super(error);
+	}
+
+	/**
+	 * Id of the cursor to fetch the next page from, only valid while more is true.
+	 */
+	public String getCursor() {
+		return cursor;
+	}
+
+	/**
+	 * Number of rows before this page.
+	 */
+	public Integer getOffset() {
+		return offset;
+	}
+
+	public Boolean getMore() {
+		return more;
+	}
+}
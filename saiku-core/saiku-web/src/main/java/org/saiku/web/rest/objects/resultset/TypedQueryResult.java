@@ -0,0 +1,84 @@
+/*
+ * Copyright (C) 2011 OSBI Ltd
+ *
+ * This program is free software; you can redistribute it and/or modify it 
+ * under the terms of the GNU General Public License as published by the Free 
+ * Software Foundation; either version 2 of the License, or (at your option) 
+ * any later version.
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * 
+ * See the GNU General Public License for more details.
+ * 
+ * You should have received a copy of the GNU General Public License along 
+ * with this program; if not, write to the Free Software Foundation, Inc., 
+ * 59 Temple Place, Suite 330, Boston, MA 02111-1307 USA 
+ *
+ */
+package org.saiku.web.rest.objects.resultset;
+
+import java.util.List;
+
+/**
+ * A drillthrough result with typed values. columns and types describe the columns, the values in rows are
+ * numbers, booleans, dates (milliseconds since the epoch) or strings depending on their column type.
+ */
+public class TypedQueryResult {
+
+	private String[] columns;
+	private String[] types;
+	private List<Object[]> rows;
+	private Integer runtime;
+	private Integer width;
+	private Integer height;
+	private String error;
+
+	public TypedQueryResult(String[] columns, String[] types, List<Object[]> rows) {
+		this.columns = columns;
+		this.types = types;
+		this.rows = rows;
+		this.width = columns.length;
+		this.height = rows.size();
+	}
+
+	public TypedQueryResult(String error) {
+		this.error = error;
+	}
+
+	public String[] getColumns() {
+		return columns;
+	}
+
+	/**
+	 * Value type of every column: INTEGER, NUMBER, DATE, BOOLEAN or STRING.
+	 */
+	public String[] getTypes() {
+		return types;
+	}
+
+	public List<Object[]> getRows() {
+		return rows;
+	}
+
+	public Integer getRuntime() {
+		return runtime;
+	}
+
+	public void setRuntime(Integer runtime) {
+		this.runtime = runtime;
+	}
+
+	public Integer getWidth() {
+		return width;
+	}
+
+	public Integer getHeight() {
+		return height;
+	}
+
+	public String getError() {
+		return error;
+	}
+}
@@ -22,19 +22,33 @@ package org.saiku.web.rest.resources;
 import java.io.Serializable;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.FormParam;
 import javax.ws.rs.GET;
+import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.PathParam;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.Response.Status;
 
+import org.apache.commons.lang.exception.ExceptionUtils;
+import org.codehaus.jackson.map.ObjectMapper;
+import org.codehaus.jackson.map.type.TypeFactory;
 import org.saiku.olap.dto.SaikuConnection;
 import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.dto.SaikuDimension;
 import org.saiku.olap.dto.SaikuHierarchy;
 import org.saiku.olap.dto.SaikuLevel;
 import org.saiku.olap.dto.SaikuMember;
+import org.saiku.olap.util.exception.MemberListLimitException;
 import org.saiku.service.olap.OlapDiscoverService;
 import org.saiku.service.util.exception.SaikuServiceException;
 import org.slf4j.Logger;
@@ -53,6 +67,13 @@ public class OlapDiscoverResource implements Serializable {
 	private OlapDiscoverService olapDiscoverService;
     
     private static final Logger log = LoggerFactory.getLogger(OlapDiscoverResource.class);
+
+    private static final String EXPAND_LEVELS = "levels";
+    private static final String EXPAND_ROOTMEMBERS = "rootmembers";
+    /**
+     * Levels are cheap to convert and used to build the dimension tree, root members are only loaded on request.
+     */
+    private static final String EXPAND_DEFAULT = EXPAND_LEVELS;
     
     public void setOlapDiscoverService(OlapDiscoverService olapds) {
         olapDiscoverService = olapds;
@@ -85,7 +106,21 @@ public class OlapDiscoverResource implements Serializable {
 			return new ArrayList<SaikuConnection>();
 		}
     }
+
+    /**
+     * Returns hit rate and build time statistics of the metadata cache.
+     */
+    @GET
+    @Produces({"application/json" })
+  	@Path("/cache/statistics")
+     public Map<String, Object> getMetadataCacheStatistics() {
+    	return olapDiscoverService.getMetadataCacheStatistics();
+    }
     
+	/**
+	 * Returns the dimensions of the cube.
+	 * expand is a comma separated list of the hierarchy parts to include: levels and / or rootmembers.
+	 */
 	@GET
     @Produces({"application/json" })
 	@Path("/{connection}/{catalog}/{schema}/{cube}/dimensions")
@@ -93,14 +128,15 @@ public class OlapDiscoverResource implements Serializable {
     		 @PathParam("connection") String connectionName, 
     		 @PathParam("catalog") String catalogName, 
     		 @PathParam("schema") String schemaName, 
-    		 @PathParam("cube") String cubeName) 
+    		 @PathParam("cube") String cubeName,
+    		 @QueryParam("expand") @DefaultValue(EXPAND_DEFAULT) String expand) 
     {
 		if ("null".equals(schemaName)) {
 			schemaName = "";
 		}
 		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
 		try {
-			return olapDiscoverService.getAllDimensions(cube);
+			return olapDiscoverService.getAllDimensions(cube, expands(expand, EXPAND_LEVELS), expands(expand, EXPAND_ROOTMEMBERS));
 		} catch (Exception e) {
 			log.error(this.getClass().getName(),e);
 		}
@@ -115,14 +151,15 @@ public class OlapDiscoverResource implements Serializable {
     		 @PathParam("catalog") String catalogName, 
     		 @PathParam("schema") String schemaName, 
     		 @PathParam("cube") String cubeName,
-    		 @PathParam("dimension") String dimensionName) 
+    		 @PathParam("dimension") String dimensionName,
+    		 @QueryParam("expand") @DefaultValue(EXPAND_DEFAULT) String expand) 
     {
 		if ("null".equals(schemaName)) {
 			schemaName = "";
 		}
 		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
 		try {
-			return olapDiscoverService.getDimension(cube, dimensionName);
+			return olapDiscoverService.getDimension(cube, dimensionName, expands(expand, EXPAND_LEVELS), expands(expand, EXPAND_ROOTMEMBERS));
 		} catch (Exception e) {
 			log.error(this.getClass().getName(),e);
 		}
@@ -136,13 +173,14 @@ public class OlapDiscoverResource implements Serializable {
     		 									@PathParam("catalog") String catalogName, 
     		 									@PathParam("schema") String schemaName, 
     		 									@PathParam("cube") String cubeName, 
-    		 									@PathParam("dimension") String dimensionName) {
+    		 									@PathParam("dimension") String dimensionName,
+    		 									@QueryParam("expand") @DefaultValue(EXPAND_DEFAULT) String expand) {
 		if ("null".equals(schemaName)) {
 			schemaName = "";
 		}
 		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
 		try {
-			return olapDiscoverService.getAllDimensionHierarchies(cube, dimensionName);
+			return olapDiscoverService.getAllDimensionHierarchies(cube, dimensionName, expands(expand, EXPAND_LEVELS), expands(expand, EXPAND_ROOTMEMBERS));
 		} catch (Exception e) {
 			log.error(this.getClass().getName(),e);
 		}
@@ -173,6 +211,8 @@ public class OlapDiscoverResource implements Serializable {
 
 	/**
 	 * Get level information.
+	 * Large levels can be paged with offset and limit and filtered by a case-insensitive search on the caption,
+	 * searchtype is either "contains" (default) or "prefix".
 	 * @return 
 	 */
 	@GET
@@ -185,19 +225,123 @@ public class OlapDiscoverResource implements Serializable {
 			@PathParam("cube") String cubeName, 
 			@PathParam("dimension") String dimensionName, 
 			@PathParam("hierarchy") String hierarchyName,
-			@PathParam("level") String levelName)
+			@PathParam("level") String levelName,
+			@QueryParam("search") String search,
+			@QueryParam("searchtype") @DefaultValue("contains") String searchType,
+			@QueryParam("offset") @DefaultValue("0") int offset,
+			@QueryParam("limit") @DefaultValue("0") int limit)
 	{
 		if ("null".equals(schemaName)) {
 			schemaName = "";
 		}
 		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
 		try {
-			return olapDiscoverService.getLevelMembers(cube, dimensionName, hierarchyName, levelName);
+			return olapDiscoverService.getLevelMembers(cube, dimensionName, hierarchyName, levelName,
+					search, "prefix".equals(searchType), offset, limit);
 		} catch (Exception e) {
+			Throwable cause = ExceptionUtils.getRootCause(e);
+			if (cause instanceof MemberListLimitException) {
+				throw new WebApplicationException(Response.status(Status.BAD_REQUEST).entity(cause.getMessage()).build());
+			}
 			log.error(this.getClass().getName(),e);
 		}
 		return new ArrayList<SaikuMember>();
 	}
+
+	/**
+	 * Get the approximate number of members of a level.
+	 * @return 
+	 */
+	@GET
+	@Produces({"application/json" })
+	@Path("/{connection}/{catalog}/{schema}/{cube}/dimensions/{dimension}/hierarchies/{hierarchy}/levels/{level}/cardinality")
+	public Map<String, Integer> getLevelCardinality(
+			@PathParam("connection") String connectionName, 
+			@PathParam("catalog") String catalogName, 
+			@PathParam("schema") String schemaName, 
+			@PathParam("cube") String cubeName, 
+			@PathParam("dimension") String dimensionName, 
+			@PathParam("hierarchy") String hierarchyName,
+			@PathParam("level") String levelName)
+	{
+		if ("null".equals(schemaName)) {
+			schemaName = "";
+		}
+		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		try {
+			result.put("cardinality", olapDiscoverService.getLevelCardinality(cube, dimensionName, hierarchyName, levelName));
+		} catch (Exception e) {
+			log.error(this.getClass().getName(),e);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the approximate number of members of a hierarchy and of each of its levels.
+	 * @return 
+	 */
+	@GET
+	@Produces({"application/json" })
+	@Path("/{connection}/{catalog}/{schema}/{cube}/dimensions/{dimension}/hierarchies/{hierarchy}/cardinality")
+	public Map<String, Object> getHierarchyCardinality(
+			@PathParam("connection") String connectionName, 
+			@PathParam("catalog") String catalogName, 
+			@PathParam("schema") String schemaName, 
+			@PathParam("cube") String cubeName, 
+			@PathParam("dimension") String dimensionName, 
+			@PathParam("hierarchy") String hierarchyName)
+	{
+		if ("null".equals(schemaName)) {
+			schemaName = "";
+		}
+		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
+		Map<String, Object> result = new HashMap<String, Object>();
+		try {
+			Map<String, Integer> levels = olapDiscoverService.getLevelCardinalities(cube, dimensionName, hierarchyName);
+			int cardinality = 0;
+			for (Integer levelCardinality : levels.values()) {
+				cardinality += levelCardinality;
+			}
+			result.put("cardinality", cardinality);
+			result.put("levels", levels);
+		} catch (Exception e) {
+			log.error(this.getClass().getName(),e);
+		}
+		return result;
+	}
+
+	/**
+	 * Get the number of members of a level that match the search of the level members listing.
+	 * @return 
+	 */
+	@GET
+	@Produces({"application/json" })
+	@Path("/{connection}/{catalog}/{schema}/{cube}/dimensions/{dimension}/hierarchies/{hierarchy}/levels/{level}/count")
+	public Map<String, Integer> getLevelMemberCount(
+			@PathParam("connection") String connectionName, 
+			@PathParam("catalog") String catalogName, 
+			@PathParam("schema") String schemaName, 
+			@PathParam("cube") String cubeName, 
+			@PathParam("dimension") String dimensionName, 
+			@PathParam("hierarchy") String hierarchyName,
+			@PathParam("level") String levelName,
+			@QueryParam("search") String search,
+			@QueryParam("searchtype") @DefaultValue("contains") String searchType)
+	{
+		if ("null".equals(schemaName)) {
+			schemaName = "";
+		}
+		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
+		Map<String, Integer> result = new HashMap<String, Integer>();
+		try {
+			result.put("count", olapDiscoverService.getLevelMemberCount(cube, dimensionName, hierarchyName, levelName,
+					search, "prefix".equals(searchType)));
+		} catch (Exception e) {
+			log.error(this.getClass().getName(),e);
+		}
+		return result;
+	}
    
 	/**
 	 * Get root member of that hierarchy.
@@ -232,13 +376,14 @@ public class OlapDiscoverResource implements Serializable {
      public List<SaikuHierarchy> getCubeHierarchies(@PathParam("connection") String connectionName, 
     		 									@PathParam("catalog") String catalogName, 
     		 									@PathParam("schema") String schemaName, 
-    		 									@PathParam("cube") String cubeName) {
+    		 									@PathParam("cube") String cubeName,
+    		 									@QueryParam("expand") @DefaultValue(EXPAND_DEFAULT) String expand) {
 		if ("null".equals(schemaName)) {
 			schemaName = "";
 		}
 		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
 		try {
-			return olapDiscoverService.getAllHierarchies(cube);
+			return olapDiscoverService.getAllHierarchies(cube, expands(expand, EXPAND_LEVELS), expands(expand, EXPAND_ROOTMEMBERS));
 		} catch (Exception e) {
 			log.error(this.getClass().getName(),e);
 		}
@@ -316,4 +461,48 @@ public class OlapDiscoverResource implements Serializable {
 		return new ArrayList<SaikuMember>();
 	}
 
+	/**
+	 * Get child members of several members at once
+	 * @param membersJson JSON array of unique member names
+	 * @return map of the given member names to their child members
+	 */
+	@POST
+	@Consumes("application/x-www-form-urlencoded")
+	@Produces({"application/json" })
+	@Path("/{connection}/{catalog}/{schema}/{cube}/members/children")
+	public Map<String, List<SaikuMember>> getMembersChildren(
+			@PathParam("connection") String connectionName, 
+			@PathParam("catalog") String catalogName, 
+			@PathParam("schema") String schemaName, 
+			@PathParam("cube") String cubeName, 
+			@FormParam("members") String membersJson)
+	{
+		if ("null".equals(schemaName)) {
+			schemaName = "";
+		}
+		SaikuCube cube = new SaikuCube(connectionName, cubeName,cubeName, catalogName, schemaName);
+		try {
+			List<String> memberNames = new ArrayList<String>();
+			if (membersJson != null) {
+				ObjectMapper mapper = new ObjectMapper();
+				memberNames = mapper.readValue(membersJson, TypeFactory.collectionType(ArrayList.class, String.class));
+			}
+			return olapDiscoverService.getMemberChildren(cube, memberNames);
+		} catch (Exception e) {
+			log.error(this.getClass().getName(),e);
+		}
+		return new HashMap<String, List<SaikuMember>>();
+	}
+
+	private static boolean expands(String expand, String part) {
+		if (expand != null) {
+			for (String e : expand.split(",")) {
+				if (e.trim().equalsIgnoreCase(part)) {
+					return true;
+				}
+			}
+		}
+		return false;
+	}
+
 }
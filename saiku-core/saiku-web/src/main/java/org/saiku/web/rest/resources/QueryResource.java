@@ -19,14 +19,18 @@
  */
 package org.saiku.web.rest.resources;
 
+import java.io.IOException;
+import java.io.OutputStream;
 import java.io.StringReader;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Properties;
 
 import javax.servlet.ServletException;
@@ -45,30 +49,41 @@ import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.MultivaluedMap;
 import javax.ws.rs.core.Response;
 import javax.ws.rs.core.Response.Status;
+import javax.ws.rs.core.StreamingOutput;
 import javax.xml.bind.annotation.XmlAccessType;
 import javax.xml.bind.annotation.XmlAccessorType;
 
+import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.exception.ExceptionUtils;
+import org.codehaus.jackson.JsonEncoding;
+import org.codehaus.jackson.JsonGenerator;
 import org.codehaus.jackson.annotate.JsonAutoDetect.Visibility;
 import org.codehaus.jackson.map.ObjectMapper;
 import org.codehaus.jackson.map.type.TypeFactory;
+import org.saiku.olap.dto.SaikuCellValue;
 import org.saiku.olap.dto.SaikuCube;
 import org.saiku.olap.dto.SaikuDimensionSelection;
 import org.saiku.olap.dto.SaikuQuery;
 import org.saiku.olap.dto.SaikuTag;
 import org.saiku.olap.dto.resultset.CellDataSet;
+import org.saiku.olap.dto.resultset.ResultSetPage;
 import org.saiku.olap.util.SaikuProperties;
 import org.saiku.olap.util.formatter.CellSetFormatter;
 import org.saiku.olap.util.formatter.FlattenedCellSetFormatter;
 import org.saiku.olap.util.formatter.HierarchicalCellSetFormatter;
 import org.saiku.olap.util.formatter.ICellSetFormatter;
+import org.saiku.service.olap.IQueryExecutionListener;
 import org.saiku.service.olap.OlapDiscoverService;
 import org.saiku.service.olap.OlapQueryService;
 import org.saiku.service.util.exception.SaikuServiceException;
 import org.saiku.web.rest.objects.MdxQueryObject;
+import org.saiku.web.rest.objects.QueryOperationRestObject;
 import org.saiku.web.rest.objects.SavedQuery;
 import org.saiku.web.rest.objects.SelectionRestObject;
+import org.saiku.web.rest.objects.resultset.QueryBatchResult;
 import org.saiku.web.rest.objects.resultset.QueryResult;
+import org.saiku.web.rest.objects.resultset.QueryResultPage;
+import org.saiku.web.rest.objects.resultset.TypedQueryResult;
 import org.saiku.web.rest.util.RestUtil;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -350,16 +365,33 @@ public class QueryResource {
 		}
 	}
 	
+	/**
+	 * Execute the query. If sortcolumn or limit are given the rows of the last result are sorted and limited
+	 * in memory instead, the query is only executed again if it changed in the meantime.
+	 * @param sortColumn column of the result to sort by.
+	 * @param sortOrder ASC or DESC keep the hierarchy, BASC or BDESC sort all rows.
+	 * @param limit number of rows to keep (per parent member if the hierarchy is kept), 0 keeps all rows.
+	 * @param formatter the formatter of the result, sorting reuses the last result only if it was built with it.
+	 */
 	@GET
 	@Produces({"application/json" })
 	@Path("/{queryname}/result")
-	public QueryResult execute(@PathParam("queryname") String queryName){
+	public QueryResult execute(
+			@PathParam("queryname") String queryName,
+			@QueryParam("sortcolumn") @DefaultValue("-1") Integer sortColumn,
+			@QueryParam("sortorder") String sortOrder,
+			@QueryParam("limit") @DefaultValue("0") Integer limit,
+			@QueryParam("format") @DefaultValue("hierarchical") String formatter){
 		if (log.isDebugEnabled()) {
 			log.debug("TRACK\t"  + "\t/query/" + queryName + "/result\tGET");
 		}
 		try {
-
-			CellDataSet cs = olapQueryService.execute(queryName);
+			CellDataSet cs;
+			if (sortColumn >= 0 || limit > 0) {
+				cs = olapQueryService.sortResult(queryName, formatter, sortColumn, sortOrder, limit);
+			} else {
+				cs = olapQueryService.execute(queryName, formatter);
+			}
 			return RestUtil.convert(cs);
 		}
 		catch (Exception e) {
@@ -464,6 +496,9 @@ public class QueryResource {
 			Long start = (new Date()).getTime();
 			if (position == null) {
 				rs = olapQueryService.drillthrough(queryName, maxrows, returns);
+				rsc = RestUtil.convert(rs);
+			} else if (position.contains(",")) {
+				rsc = drillthroughCells(queryName, position.split(","), maxrows, returns);
 			} else {
 				String[] positions = position.split(":");
 				List<Integer> cellPosition = new ArrayList<Integer>();
@@ -474,8 +509,8 @@ public class QueryResource {
 				}
 
 				rs = olapQueryService.drillthrough(queryName, cellPosition, maxrows, returns);
+				rsc = RestUtil.convert(rs);
 			}
-			rsc = RestUtil.convert(rs);
 			Long runtime = (new Date()).getTime()- start;
 			rsc.setRuntime(runtime.intValue());
 
@@ -504,6 +539,162 @@ public class QueryResource {
 	}
 
 
+	/**
+	 * Drill through the query or a cell like /drillthrough, but return the values typed by their JDBC column type
+	 * together with the type of every column instead of converting them to text.
+	 */
+	@GET
+	@Produces({"application/json" })
+	@Path("/{queryname}/drillthrough/typed")
+	public TypedQueryResult drillthroughTyped(
+			@PathParam("queryname") String queryName, 
+			@QueryParam("maxrows") @DefaultValue("100") Integer maxrows,
+			@QueryParam("position") String position,
+			@QueryParam("returns") String returns)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/" + queryName + "/drillthrough/typed\tGET");
+		}
+		ResultSet rs = null;
+		try {
+			Long start = (new Date()).getTime();
+			if (position == null) {
+				rs = olapQueryService.drillthrough(queryName, maxrows, returns);
+			} else {
+				List<Integer> cellPosition = new ArrayList<Integer>();
+				for (String p : position.split(":")) {
+					cellPosition.add(Integer.parseInt(p));
+				}
+				rs = olapQueryService.drillthrough(queryName, cellPosition, maxrows, returns);
+			}
+			TypedQueryResult result = RestUtil.convertTyped(rs);
+			result.setRuntime(new Long((new Date()).getTime() - start).intValue());
+			return result;
+		}
+		catch (Exception e) {
+			log.error("Cannot drill through query (" + queryName + ")",e);
+			return new TypedQueryResult(ExceptionUtils.getRootCauseMessage(e));
+		}
+		finally {
+			if (rs != null) {
+				try {
+					Statement statement = rs.getStatement();
+					statement.close();
+					rs.close();
+				} catch (SQLException e) {
+					log.debug("Cannot close drillthrough of query (" + queryName + ")", e);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Start a drillthrough that is read page by page. Returns the first page with typed values, see
+	 * {@link #drillthroughTyped}, and, if there are more rows, the id of the cursor to read the next pages from.
+	 * @param position the cell to drill through as x:y, or none to drill through the whole query.
+	 * @param maxrows the maximum number of rows of the whole drillthrough, 0 for no limit.
+	 * @param pagesize the number of rows per page.
+	 */
+	@GET
+	@Produces({"application/json" })
+	@Path("/{queryname}/drillthrough/cursor")
+	public QueryResultPage openDrillthrough(
+			@PathParam("queryname") String queryName, 
+			@QueryParam("maxrows") @DefaultValue("0") Integer maxrows,
+			@QueryParam("position") String position,
+			@QueryParam("returns") String returns,
+			@QueryParam("pagesize") @DefaultValue("100") Integer pageSize)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/" + queryName + "/drillthrough/cursor\tGET");
+		}
+		try {
+			Long start = (new Date()).getTime();
+			List<Integer> cellPosition = null;
+			if (position != null) {
+				cellPosition = new ArrayList<Integer>();
+				for (String p : position.split(":")) {
+					cellPosition.add(Integer.parseInt(p));
+				}
+			}
+			ResultSetPage page = olapQueryService.openDrillthrough(queryName, cellPosition, maxrows, returns, pageSize);
+			QueryResultPage result = RestUtil.convert(page);
+			result.setRuntime(new Long((new Date()).getTime() - start).intValue());
+			return result;
+		}
+		catch (Exception e) {
+			log.error("Cannot drill through query (" + queryName + ")",e);
+			return new QueryResultPage(ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	/**
+	 * Read the next page of a drillthrough started with {@link #openDrillthrough}.
+	 */
+	@GET
+	@Produces({"application/json" })
+	@Path("/{queryname}/drillthrough/cursor/{cursor}")
+	public QueryResultPage fetchDrillthrough(
+			@PathParam("queryname") String queryName, 
+			@PathParam("cursor") String cursor,
+			@QueryParam("pagesize") @DefaultValue("100") Integer pageSize)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/" + queryName + "/drillthrough/cursor/" + cursor + "\tGET");
+		}
+		try {
+			Long start = (new Date()).getTime();
+			QueryResultPage result = RestUtil.convert(olapQueryService.fetchDrillthrough(cursor, pageSize));
+			result.setRuntime(new Long((new Date()).getTime() - start).intValue());
+			return result;
+		}
+		catch (Exception e) {
+			log.error("Cannot read drillthrough cursor " + cursor + " of query (" + queryName + ")",e);
+			return new QueryResultPage(ExceptionUtils.getRootCauseMessage(e));
+		}
+	}
+
+	/**
+	 * Close a drillthrough cursor before all pages have been read.
+	 */
+	@DELETE
+	@Path("/{queryname}/drillthrough/cursor/{cursor}")
+	public Status closeDrillthrough(
+			@PathParam("queryname") String queryName, 
+			@PathParam("cursor") String cursor)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/" + queryName + "/drillthrough/cursor/" + cursor + "\tDELETE");
+		}
+		olapQueryService.closeDrillthrough(cursor);
+		return Status.OK;
+	}
+
+	/**
+	 * Drill through several cells, each position given as x:y. The rows of all cells are combined into one result
+	 * whose first column holds the position of the cell they belong to. maxrows applies to every cell.
+	 */
+	private QueryResult drillthroughCells(String queryName, String[] positions, Integer maxrows, String returns) throws SQLException {
+		List<String> labels = new ArrayList<String>();
+		List<QueryResult> results = new ArrayList<QueryResult>();
+		for (String position : positions) {
+			List<Integer> cellPosition = new ArrayList<Integer>();
+			for (String p : position.trim().split(":")) {
+				cellPosition.add(Integer.parseInt(p));
+			}
+			ResultSet rs = olapQueryService.drillthrough(queryName, cellPosition, maxrows, returns);
+			try {
+				labels.add(position.trim());
+				results.add(RestUtil.convert(rs));
+			} finally {
+				Statement statement = rs.getStatement();
+				statement.close();
+				rs.close();
+			}
+		}
+		return RestUtil.combine(labels, results);
+	}
+
 	@GET
 	@Produces({"text/csv" })
 	@Path("/{queryname}/drillthrough/export/csv")
@@ -566,12 +757,20 @@ public class QueryResource {
 	@Path("/{queryname}/result/{format}")
 	public QueryResult execute(
 			@PathParam("queryname") String queryName,
-			@PathParam("format") String formatter){
+			@PathParam("format") String formatter,
+			@QueryParam("sortcolumn") @DefaultValue("-1") Integer sortColumn,
+			@QueryParam("sortorder") String sortOrder,
+			@QueryParam("limit") @DefaultValue("0") Integer limit){
 		if (log.isDebugEnabled()) {
 			log.debug("TRACK\t"  + "\t/query/" + queryName + "/result"+formatter+"\tGET");
 		}
 		try {
-			CellDataSet cs = olapQueryService.execute(queryName,formatter);
+			CellDataSet cs;
+			if (sortColumn >= 0 || limit > 0) {
+				cs = olapQueryService.sortResult(queryName, formatter, sortColumn, sortOrder, limit);
+			} else {
+				cs = olapQueryService.execute(queryName,formatter);
+			}
 			return RestUtil.convert(cs);
 		}
 		catch (Exception e) {
@@ -581,6 +780,217 @@ public class QueryResource {
 		}
 	}
 
+	/**
+	 * Execute several queries in parallel, e.g. all queries of a dashboard.
+	 * Queries that contain xml are created (or replaced) first, the others have to be open already.
+	 * The results are streamed back as a JSON list of { name, result } in the order the queries complete.
+	 * @param queriesJSON JSON list of {@link SavedQuery}, only name and xml are used.
+	 * @param formatter the formatter used to execute the queries.
+	 */
+	@POST
+	@Produces({"application/json" })
+	@Consumes("application/x-www-form-urlencoded")
+	@Path("/dashboard/execute")
+	public Response executeDashboard(
+			@FormParam("queries") String queriesJSON,
+			@FormParam("format") final String formatter)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/dashboard/execute\tPOST");
+		}
+		try {
+			final ObjectMapper mapper = new ObjectMapper();
+			List<SavedQuery> dashboard = mapper.readValue(queriesJSON, TypeFactory.collectionType(ArrayList.class, SavedQuery.class));
+			final List<String> queryNames = new ArrayList<String>();
+			final Map<String, String> errors = new LinkedHashMap<String, String>();
+			for (SavedQuery savedQuery : dashboard) {
+				String name = savedQuery.getName();
+				if (StringUtils.isNotBlank(savedQuery.getXml())) {
+					try {
+						SaikuQuery query = olapQueryService.createNewOlapQuery(name, savedQuery.getXml());
+						name = name != null ? name : query.getName();
+					} catch (Exception e) {
+						log.error("Cannot create query (" + name + ") for dashboard",e);
+						errors.put(name, ExceptionUtils.getRootCauseMessage(e));
+						continue;
+					}
+				}
+				queryNames.add(name);
+			}
+
+			StreamingOutput stream = new StreamingOutput() {
+				public void write(OutputStream output) throws IOException {
+					final JsonGenerator json = mapper.getJsonFactory().createJsonGenerator(output, JsonEncoding.UTF8);
+					json.writeStartArray();
+					for (String name : errors.keySet()) {
+						writeDashboardResult(mapper, json, name, new QueryResult(errors.get(name)));
+					}
+					olapQueryService.executeAll(queryNames, formatter, new IQueryExecutionListener() {
+						public void executed(String queryName, CellDataSet result, Exception error) {
+							QueryResult qr;
+							if (error != null) {
+								log.error("Cannot execute query (" + queryName + ")",error);
+								qr = new QueryResult(ExceptionUtils.getRootCauseMessage(error));
+							} else {
+								qr = RestUtil.convert(result);
+							}
+							try {
+								writeDashboardResult(mapper, json, queryName, qr);
+							} catch (IOException e) {
+								throw new SaikuServiceException("Cannot write result of query (" + queryName + ")", e);
+							}
+						}
+					});
+					json.writeEndArray();
+					json.flush();
+				}
+			};
+			return Response.ok(stream, MediaType.APPLICATION_JSON).build();
+		}
+		catch (Exception e) {
+			log.error("Cannot execute dashboard " + queriesJSON,e);
+			return Response.serverError().entity(e.getMessage()).type("text/plain").build();
+		}
+	}
+
+	private void writeDashboardResult(ObjectMapper mapper, JsonGenerator json, String queryName, QueryResult result) throws IOException {
+		json.writeStartObject();
+		json.writeStringField("name", queryName);
+		json.writeFieldName("result");
+		mapper.writeValue(json, result);
+		json.writeEndObject();
+		json.flush();
+	}
+
+	/**
+	 * Apply a list of operations to a query in one request and optionally execute it.
+	 * If one of the operations fails, the query is restored to its state before the batch.
+	 * @param queryName the name of the query.
+	 * @param operationsJSON JSON list of {@link QueryOperationRestObject}, applied in order.
+	 * @param execute execute the query after applying the operations.
+	 * @param formatter the formatter used to execute the query.
+	 * @return the resulting query and, if executed, its result.
+	 */
+	@POST
+	@Produces({"application/json" })
+	@Consumes("application/x-www-form-urlencoded")
+	@Path("/{queryname}/batch")
+	public QueryBatchResult batch(
+			@PathParam("queryname") String queryName,
+			@FormParam("operations") String operationsJSON,
+			@FormParam("execute") @DefaultValue("false") boolean execute,
+			@FormParam("format") String formatter)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/" + queryName + "/batch\tPOST");
+		}
+		String backup = null;
+		try {
+			List<QueryOperationRestObject> operations = new ArrayList<QueryOperationRestObject>();
+			if (operationsJSON != null) {
+				ObjectMapper mapper = new ObjectMapper();
+				operations = mapper.readValue(operationsJSON, TypeFactory.collectionType(ArrayList.class, QueryOperationRestObject.class));
+			}
+			if (operations.size() > 0) {
+				backup = olapQueryService.getQueryXml(queryName);
+			}
+			for (QueryOperationRestObject operation : operations) {
+				applyOperation(queryName, operation);
+			}
+		}
+		catch (Exception e) {
+			log.error("Cannot apply operations " + operationsJSON + " to query (" + queryName + ")",e);
+			if (backup != null) {
+				try {
+					olapQueryService.restoreQuery(queryName, backup);
+				} catch (Exception re) {
+					log.error("Cannot restore query (" + queryName + ")", re);
+				}
+			}
+			return new QueryBatchResult(olapQueryService.getQuery(queryName), ExceptionUtils.getRootCauseMessage(e));
+		}
+
+		SaikuQuery query = olapQueryService.getQuery(queryName);
+		QueryResult result = null;
+		if (execute) {
+			try {
+				CellDataSet cs = formatter != null ? olapQueryService.execute(queryName, formatter) : olapQueryService.execute(queryName);
+				result = RestUtil.convert(cs);
+			}
+			catch (Exception e) {
+				log.error("Cannot execute query (" + queryName + ")",e);
+				result = new QueryResult(ExceptionUtils.getRootCauseMessage(e));
+			}
+		}
+		return new QueryBatchResult(query, result);
+	}
+
+	private void applyOperation(String queryName, QueryOperationRestObject op) throws Exception {
+		String operation = op.getOperation() != null ? op.getOperation().toLowerCase() : "";
+		int position = op.getPosition() != null ? op.getPosition() : -1;
+		if ("move".equals(operation)) {
+			olapQueryService.moveDimension(queryName, op.getAxis(), op.getDimension(), position);
+		}
+		else if ("remove".equals(operation)) {
+			olapQueryService.removeDimension(queryName, op.getAxis(), op.getDimension());
+		}
+		else if ("selections".equals(operation)) {
+			if (op.getSelections() != null) {
+				applySelections(queryName, op.getAxis(), op.getDimension(), op.getSelections());
+			}
+		}
+		else if ("include".equals(operation)) {
+			String selectionType = op.getSelection() != null ? op.getSelection() : "MEMBER";
+			int memberposition = op.getMemberposition() != null ? op.getMemberposition() : -1;
+			olapQueryService.moveDimension(queryName, op.getAxis(), op.getDimension(), position);
+			if (!olapQueryService.includeMember(queryName, op.getDimension(), op.getUniquename(), selectionType, memberposition)) {
+				throw new SaikuServiceException("Cannot include member " + op.getUniquename());
+			}
+		}
+		else if ("exclude".equals(operation)) {
+			String selectionType = op.getSelection() != null ? op.getSelection() : "MEMBER";
+			olapQueryService.removeMember(queryName, op.getDimension(), op.getUniquename(), selectionType);
+			moveToUnusedIfEmpty(queryName, op.getAxis(), op.getDimension());
+		}
+		else if ("includelevel".equals(operation)) {
+			olapQueryService.moveDimension(queryName, op.getAxis(), op.getDimension(), position);
+			if (!olapQueryService.includeLevel(queryName, op.getDimension(), op.getHierarchy(), op.getUniquename())) {
+				throw new SaikuServiceException("Cannot include level " + op.getUniquename());
+			}
+		}
+		else if ("removelevel".equals(operation)) {
+			olapQueryService.removeLevel(queryName, op.getDimension(), op.getHierarchy(), op.getUniquename());
+			moveToUnusedIfEmpty(queryName, op.getAxis(), op.getDimension());
+		}
+		else if ("properties".equals(operation)) {
+			if (op.getProperties() != null) {
+				Properties props = new Properties();
+				props.putAll(op.getProperties());
+				olapQueryService.setProperties(queryName, props);
+			}
+		}
+		else if ("sort".equals(operation)) {
+			olapQueryService.sortAxis(queryName, op.getAxis(), op.getSortliteral(), op.getSortorder());
+		}
+		else if ("clearsort".equals(operation)) {
+			olapQueryService.clearSort(queryName, op.getAxis());
+		}
+		else if ("nonempty".equals(operation)) {
+			olapQueryService.setNonEmpty(queryName, op.getAxis(), op.getNonempty() != null ? op.getNonempty() : true);
+		}
+		else if ("clearaxis".equals(operation)) {
+			olapQueryService.clearAxis(queryName, op.getAxis());
+		}
+		else if ("swapaxes".equals(operation)) {
+			olapQueryService.clearSort(queryName, "ROWS");
+			olapQueryService.clearSort(queryName, "COLUMNS");
+			olapQueryService.swapAxes(queryName);
+		}
+		else {
+			throw new SaikuServiceException("Unknown query operation: " + op.getOperation());
+		}
+	}
+
 	/*
 	 * Axis Methods.
 	 */
@@ -672,6 +1082,41 @@ public class QueryResource {
 
 	}
 
+	/**
+	 * Write several cell values into the query's scenario and execute the query once afterwards.
+	 * @param queryName the name of the query.
+	 * @param cellsJSON JSON list of {@link SaikuCellValue}, e.g. [{ "position" : [0,1], "value" : "100", "allocationPolicy" : "EQUAL_INCREMENT" }].
+	 * @param formatter the formatter used to execute the query.
+	 * @return the result of the query after writing the values.
+	 */
+	@POST
+	@Produces({"application/json" })
+	@Consumes("application/x-www-form-urlencoded")
+	@Path("/{queryname}/cells")
+	public QueryResult setCells(
+			@PathParam("queryname") String queryName,
+			@FormParam("cells") String cellsJSON,
+			@FormParam("format") String formatter)
+	{
+		if (log.isDebugEnabled()) {
+			log.debug("TRACK\t"  + "\t/query/" + queryName + "/cells\tPOST");
+		}
+		try {
+			if (cellsJSON != null) {
+				ObjectMapper mapper = new ObjectMapper();
+				List<SaikuCellValue> cells = mapper.readValue(cellsJSON, TypeFactory.collectionType(ArrayList.class, SaikuCellValue.class));
+				olapQueryService.setCellValues(queryName, cells);
+			}
+			CellDataSet cs = formatter != null ? olapQueryService.execute(queryName, formatter) : olapQueryService.execute(queryName);
+			return RestUtil.convert(cs);
+		}
+		catch (Exception e) {
+			log.error("Cannot set cells " + cellsJSON + " of query (" + queryName + ")",e);
+			String error = ExceptionUtils.getRootCauseMessage(e);
+			return new QueryResult(error);
+		}
+	}
+
 
 	/*
 	 * Dimension Methods
@@ -768,38 +1213,7 @@ public class QueryResource {
 			if (selectionJSON != null) {
 				ObjectMapper mapper = new ObjectMapper();
 				List<SelectionRestObject> selections = mapper.readValue(selectionJSON, TypeFactory.collectionType(ArrayList.class, SelectionRestObject.class));
-
-
-
-				// remove stuff first, then add, removing removes all selections for that level first
-				for (SelectionRestObject selection : selections) {
-					if (selection.getType() != null && "member".equals(selection.getType().toLowerCase())) {
-						if (selection.getAction() != null && "delete".equals(selection.getAction().toLowerCase())) {
-							olapQueryService.removeMember(queryName, dimensionName, selection.getUniquename(), "MEMBER");
-						}
-					}
-					if (selection.getType() != null && "level".equals(selection.getType().toLowerCase())) {
-						if (selection.getAction() != null && "delete".equals(selection.getAction().toLowerCase())) {
-							olapQueryService.removeLevel(queryName, dimensionName, selection.getHierarchy(), selection.getUniquename());
-						}
-					}
-				}
-				for (SelectionRestObject selection : selections) {
-					if (selection.getType() != null && "member".equals(selection.getType().toLowerCase())) {
-						if (selection.getAction() != null && "add".equals(selection.getAction().toLowerCase())) {
-							olapQueryService.includeMember(queryName, dimensionName, selection.getUniquename(), "MEMBER", -1);
-						}
-					}
-					if (selection.getType() != null && "level".equals(selection.getType().toLowerCase())) {
-						if (selection.getAction() != null && "add".equals(selection.getAction().toLowerCase())) {
-							olapQueryService.includeLevel(queryName, dimensionName, selection.getHierarchy(), selection.getUniquename());
-						}
-					}
-				}
-				SaikuDimensionSelection dimsels = getAxisDimensionInfo(queryName, axisName, dimensionName);
-				if (dimsels != null && dimsels.getSelections().size() == 0) {
-					moveDimension(queryName, "UNUSED", dimensionName, -1);
-				}
+				applySelections(queryName, axisName, dimensionName, selections);
 				return Status.OK;
 			}
 		} catch (Exception e){
@@ -807,6 +1221,42 @@ public class QueryResource {
 		}
 		return Status.INTERNAL_SERVER_ERROR;
 	}
+
+	private void applySelections(String queryName, String axisName, String dimensionName, List<SelectionRestObject> selections) {
+		// remove stuff first, then add, removing removes all selections for that level first
+		for (SelectionRestObject selection : selections) {
+			if (selection.getType() != null && "member".equals(selection.getType().toLowerCase())) {
+				if (selection.getAction() != null && "delete".equals(selection.getAction().toLowerCase())) {
+					olapQueryService.removeMember(queryName, dimensionName, selection.getUniquename(), "MEMBER");
+				}
+			}
+			if (selection.getType() != null && "level".equals(selection.getType().toLowerCase())) {
+				if (selection.getAction() != null && "delete".equals(selection.getAction().toLowerCase())) {
+					olapQueryService.removeLevel(queryName, dimensionName, selection.getHierarchy(), selection.getUniquename());
+				}
+			}
+		}
+		for (SelectionRestObject selection : selections) {
+			if (selection.getType() != null && "member".equals(selection.getType().toLowerCase())) {
+				if (selection.getAction() != null && "add".equals(selection.getAction().toLowerCase())) {
+					olapQueryService.includeMember(queryName, dimensionName, selection.getUniquename(), "MEMBER", -1);
+				}
+			}
+			if (selection.getType() != null && "level".equals(selection.getType().toLowerCase())) {
+				if (selection.getAction() != null && "add".equals(selection.getAction().toLowerCase())) {
+					olapQueryService.includeLevel(queryName, dimensionName, selection.getHierarchy(), selection.getUniquename());
+				}
+			}
+		}
+		moveToUnusedIfEmpty(queryName, axisName, dimensionName);
+	}
+
+	private void moveToUnusedIfEmpty(String queryName, String axisName, String dimensionName) {
+		SaikuDimensionSelection dimsels = olapQueryService.getAxisDimensionSelections(queryName, axisName, dimensionName);
+		if (dimsels != null && dimsels.getSelections().size() == 0) {
+			olapQueryService.moveDimension(queryName, "UNUSED", dimensionName, -1);
+		}
+	}
 	
 	
 
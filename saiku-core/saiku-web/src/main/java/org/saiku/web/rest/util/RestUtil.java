@@ -21,6 +21,7 @@
 package org.saiku.web.rest.util;
 
 import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.List;
@@ -30,8 +31,13 @@ import org.saiku.olap.dto.resultset.AbstractBaseCell;
 import org.saiku.olap.dto.resultset.CellDataSet;
 import org.saiku.olap.dto.resultset.DataCell;
 import org.saiku.olap.dto.resultset.MemberCell;
+import org.saiku.olap.dto.resultset.ResultSetPage;
+import org.saiku.service.util.ResultSetUtil;
+import org.saiku.service.util.ResultSetUtil.ColumnType;
 import org.saiku.web.rest.objects.resultset.Cell;
 import org.saiku.web.rest.objects.resultset.QueryResult;
+import org.saiku.web.rest.objects.resultset.QueryResultPage;
+import org.saiku.web.rest.objects.resultset.TypedQueryResult;
 
 public class RestUtil {
 	
@@ -73,6 +79,62 @@ public class RestUtil {
 		
 		return new QueryResult(rows,0,width,height);
 	}
+
+	/**
+	 * Converts a result set reading every column with a getter matching its JDBC type.
+	 */
+	public static TypedQueryResult convertTyped(ResultSet rs) throws SQLException {
+		ResultSetMetaData meta = rs.getMetaData();
+		String[] columns = ResultSetUtil.getColumnNames(meta);
+		ColumnType[] types = ResultSetUtil.getColumnTypes(meta);
+		List<Object[]> rows = new ArrayList<Object[]>();
+		while (rs.next()) {
+			rows.add(ResultSetUtil.readRow(rs, types));
+		}
+		String[] typeNames = new String[types.length];
+		for (int i = 0; i < types.length; i++) {
+			typeNames[i] = types[i].toString();
+		}
+		return new TypedQueryResult(columns, typeNames, rows);
+	}
+
+	public static QueryResultPage convert(ResultSetPage page) {
+		return new QueryResultPage(page.getColumns(), page.getColumnTypes(), page.getRows(), page.getCursor(), 
+				page.getOffset(), page.hasMore());
+	}
+
+	/**
+	 * Combines the results of several drillthroughs into one result. An additional first column holds the label
+	 * of the result each row comes from, e.g. the position of the cell that was drilled through.
+	 */
+	public static QueryResult combine(List<String> labels, List<QueryResult> results) {
+		ArrayList<Cell[]> rows = new ArrayList<Cell[]>();
+		Integer width = 0;
+		Integer height = 0;
+		for (int r = 0; r < results.size(); r++) {
+			QueryResult result = results.get(r);
+			if (result.getHeight() == null || result.getHeight() == 0) {
+				continue;
+			}
+			List<Cell[]> cells = result.getCellset();
+			if (rows.isEmpty()) {
+				width = result.getWidth() + 1;
+				rows.add(prepend(new Cell("Position", Cell.Type.COLUMN_HEADER), cells.get(0)));
+			}
+			for (int i = 1; i < cells.size(); i++) {
+				rows.add(prepend(new Cell(labels.get(r), Cell.Type.DATA_CELL), cells.get(i)));
+				height++;
+			}
+		}
+		return new QueryResult(rows,0,width,height);
+	}
+
+	private static Cell[] prepend(Cell first, Cell[] cells) {
+		Cell[] row = new Cell[cells.length + 1];
+		row[0] = first;
+		System.arraycopy(cells, 0, row, 1, cells.length);
+		return row;
+	}
 	public static QueryResult convert(CellDataSet cellSet) {
 		ArrayList<Cell[]> rows = new ArrayList<Cell[]>();
 		if (cellSet == null || cellSet.getCellSetBody() == null || cellSet.getCellSetHeaders() == null) {
@@ -91,6 +153,11 @@ public class RestUtil {
 			rows.add(convert(row, Cell.Type.ROW_HEADER));
 		}
 		QueryResult qr = new QueryResult(rows, cellSet.getRuntime(), cellSet.getWidth(), cellSet.getHeight());
+		if (cellSet.isTruncated()) {
+			String warning = "The result has " + cellSet.getTotalCells() + " cells and is too large to be displayed. "
+				+ "Showing a preview of the first " + body.length + " rows only, export the query to get the complete result.";
+			qr.setTruncated(true, cellSet.getTotalCells(), cellSet.getTotalRows(), cellSet.getTotalColumns(), warning);
+		}
 		return qr;
 		
 	}